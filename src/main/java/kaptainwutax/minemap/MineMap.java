@@ -40,6 +40,7 @@ public class MineMap extends JFrame {
     public final static String LOG_DIR = ROOT_DIR + File.separatorChar + "logs";
     public final static String SETTINGS_DIR = ROOT_DIR + File.separatorChar + "configs";
     public final static String DOWNLOAD_DIR = ROOT_DIR + File.separatorChar + "downloads";
+    public final static String CACHE_DIR = ROOT_DIR + File.separatorChar + "cache";
     public static MineMap INSTANCE;
     public static LookType lookType = LookType.DARCULA;
     public MenuBar toolbarPane;
@@ -229,7 +230,7 @@ public class MineMap extends JFrame {
 
     public static void createDirs() {
         try {
-            String[] dirs = {LOG_DIR, SETTINGS_DIR, DOWNLOAD_DIR};
+            String[] dirs = {LOG_DIR, SETTINGS_DIR, DOWNLOAD_DIR, CACHE_DIR};
             for (String dir : dirs) {
                 Files.createDirectories(Paths.get(dir));
             }
@@ -107,6 +107,8 @@ public class BiomeColorsConfig extends Config {
     protected Map<String, Map<String, String>> OVERRIDES = new LinkedHashMap<>();
     protected Map<Integer, Color> defaultBiomeColorCache;
     protected Map<String, Map<Integer, Color>> biomeColorCache;
+    // never modified once published, a style gets its table on first use
+    protected volatile Map<String, int[]> colorTables;
 
     @Override
     public String getName() {
@@ -126,6 +128,35 @@ public class BiomeColorsConfig extends Config {
                 .getOrDefault(biome, this.defaultBiomeColorCache.get(biome));
     }
 
+    /**
+     * Lock free once built, unlike {@link #get(String, int)} which is meant for the ui.
+     *
+     * @return the ARGB color of every biome indexed by its id, 0 if it has none, the array must not be modified
+     */
+    public int[] getColorTable(String style) {
+        Map<String, int[]> tables = this.colorTables;
+        int[] table = tables == null ? null : tables.get(style);
+        return table != null ? table : this.generateColorTable(style);
+    }
+
+    private synchronized int[] generateColorTable(String style) {
+        Map<String, int[]> tables = this.colorTables == null ? new HashMap<>() : new HashMap<>(this.colorTables);
+        int[] table = tables.get(style);
+        if (table != null) return table;
+
+        int maxId = Biome.REGISTRY.values().stream().mapToInt(Biome::getId).max().orElse(0);
+        table = new int[maxId + 1];
+
+        for (Biome biome : Biome.REGISTRY.values()) {
+            Color color = this.get(style, biome.getId());
+            if (color != null) table[biome.getId()] = color.getRGB();
+        }
+
+        tables.put(style, table);
+        this.colorTables = tables;
+        return table;
+    }
+
     private void generateCache() {
         this.defaultBiomeColorCache = new HashMap<>();
         this.biomeColorCache = new HashMap<>();
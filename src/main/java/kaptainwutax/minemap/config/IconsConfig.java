@@ -17,6 +17,7 @@ import kaptainwutax.minemap.util.ui.buttons.JumpButton;
 import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class IconsConfig extends Config {
     @Expose
@@ -31,15 +32,19 @@ public class IconsConfig extends Config {
     protected Map<String, String> OBJECT_ICON_PATH = new LinkedHashMap<>();
     @Expose
     protected Map<String, String> USER_OBJECT_ICON_PATH = new LinkedHashMap<>();
+    // asked for every icon drawn, so the generic string of the class is only built once
+    private final transient Map<Class<?>, Double> sizes = new ConcurrentHashMap<>();
 
     public <T> Double getSize(Class<T> clazz) {
-        if (OVERRIDES.containsKey(clazz.toGenericString())) {
-            return OVERRIDES.get(clazz.toGenericString());
-        }
-        if (ICON_SIZES.containsKey(clazz.toGenericString())) {
-            return ICON_SIZES.get(clazz.toGenericString());
-        }
-        return 1.0D;
+        return this.sizes.computeIfAbsent(clazz, c -> {
+            if (OVERRIDES.containsKey(c.toGenericString())) {
+                return OVERRIDES.get(c.toGenericString());
+            }
+            if (ICON_SIZES.containsKey(c.toGenericString())) {
+                return ICON_SIZES.get(c.toGenericString());
+            }
+            return 1.0D;
+        });
     }
 
     @Override
@@ -59,6 +64,7 @@ public class IconsConfig extends Config {
 
     private void resetSizeConfig() {
         this.ICON_SIZES.clear();
+        this.sizes.clear();
 
         addDefaultEntry(BastionRemnant.class, 1.0);
         addDefaultEntry(BuriedTreasure.class, 0.6);
@@ -103,6 +109,7 @@ public class IconsConfig extends Config {
 
     public void resetOverrides() {
         this.OVERRIDES.clear();
+        this.sizes.clear();
     }
 
     private void addDefaultEntry(Class<?> clazz, Double size) {
@@ -111,6 +118,7 @@ public class IconsConfig extends Config {
 
     private void addOverrideEntry(Class<?> clazz, Double size) {
         OVERRIDES.put(clazz.toGenericString(), size);
+        this.sizes.clear();
     }
 
     public void flush() {
@@ -19,6 +19,18 @@ public class UserSettings {
     public boolean structureMode = false;
     @Expose
     public MapManager.ModifierDown modifierDown = MapManager.ModifierDown.CTRL_DOWN;
+    // in megabytes for all the maps together, split between the open ones, 0 or less means an eighth of the maximum heap
+    @Expose
+    public int fragmentCacheMemory = 0;
+    // in megabytes for the values shared between the maps, 0 or less means a sixteenth of the maximum heap
+    @Expose
+    public int sharedCacheMemory = 0;
+    // in megabytes for all the worlds, 0 or less disables the disk cache
+    @Expose
+    public int diskCacheSize = 512;
+    // scale of the coarse layer drawn while a fragment is generated, 0 or less disables the preview
+    @Expose
+    public int previewScale = 16;
 
     public DistanceMetric getFragmentMetric() {
         switch (this.fragmentMetric) {
@@ -32,4 +44,18 @@ public class UserSettings {
         return null;
     }
 
+    public long getFragmentCacheBudget() {
+        if (this.fragmentCacheMemory > 0) return this.fragmentCacheMemory * 1024L * 1024L;
+        return Runtime.getRuntime().maxMemory() / 8;
+    }
+
+    public long getSharedCacheBudget() {
+        if (this.sharedCacheMemory > 0) return this.sharedCacheMemory * 1024L * 1024L;
+        return Runtime.getRuntime().maxMemory() / 16;
+    }
+
+    public long getDiskCacheBudget() {
+        return this.diskCacheSize * 1024L * 1024L;
+    }
+
 }
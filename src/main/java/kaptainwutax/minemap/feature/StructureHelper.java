@@ -7,8 +7,14 @@ import kaptainwutax.mcutils.util.pos.BPos;
 import kaptainwutax.mcutils.util.pos.CPos;
 import kaptainwutax.mcutils.util.pos.RPos;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.stream.Stream;
@@ -16,6 +22,11 @@ import java.util.stream.StreamSupport;
 
 public class StructureHelper {
 
+    // attempts and biome checks of the regions, shared by every map and search, least recently used dropped first
+    private static final int MAX_ENTRIES = 1 << 17;
+    private static final Memo<Optional<CPos>> ATTEMPTS = new Memo<>(MAX_ENTRIES);
+    private static final Memo<Boolean> SPAWNS = new Memo<>(MAX_ENTRIES);
+
     public static Stream<BPos> getClosest(RegionStructure<?, ?> structure, BPos currentPos, long worldseed, ChunkRand chunkRand, BiomeSource source, int dimCoeff) {
         int chunkInRegion = structure.getSpacing();
         int regionSize = chunkInRegion * 16;
@@ -33,11 +44,100 @@ public class StructureHelper {
     }
 
     public static CPos getInRegion(RegionStructure<?, ?> structure, long worldseed, ChunkRand chunkRand, RPos rPos) {
-        return structure.getInRegion(worldseed, rPos.getX(), rPos.getZ(), chunkRand);
+        return getInRegion(structure, worldseed, rPos.getX(), rPos.getZ(), chunkRand);
+    }
+
+    /**
+     * Memoized {@link RegionStructure#getInRegion}, the neighbouring fragments all try the regions along their edges.
+     *
+     * @param worldseed the world seed with the salt of the structure applied if any
+     */
+    public static CPos getInRegion(RegionStructure<?, ?> structure, long worldseed, int regionX, int regionZ, ChunkRand chunkRand) {
+        // a region per chunk is as cheap to try again as to look up and would flood the memo
+        if (structure.getSpacing() == 1) return structure.getInRegion(worldseed, regionX, regionZ, chunkRand);
+        List<Object> key = Arrays.asList(getType(structure), structure.getSpacing(), structure.getSeparation(), structure.getSalt(),
+                structure.getVersion(), worldseed, regionX, regionZ);
+        Optional<CPos> attempt = ATTEMPTS.get(key);
+        if (attempt == null) attempt = ATTEMPTS.putIfAbsent(key, Optional.ofNullable(structure.getInRegion(worldseed, regionX, regionZ, chunkRand)));
+        return attempt.orElse(null);
     }
 
     public static boolean canSpawn(RegionStructure<?, ?> structure, CPos cPos, BiomeSource source) {
-        return structure.canSpawn(cPos.getX(), cPos.getZ(), source);
+        return canSpawn(structure, cPos.getX(), cPos.getZ(), source);
+    }
+
+    /**
+     * Memoized {@link RegionStructure#canSpawn}, the biome check is by far the most expensive part of a structure.
+     */
+    public static boolean canSpawn(RegionStructure<?, ?> structure, int chunkX, int chunkZ, BiomeSource source) {
+        if (structure.getSpacing() == 1) return structure.canSpawn(chunkX, chunkZ, source);
+        List<Object> key = Arrays.asList(getType(structure), structure.getSpacing(), structure.getSeparation(), structure.getSalt(),
+                structure.getVersion(), source.getWorldSeed(), source.getDimension(), chunkX, chunkZ);
+        Boolean spawns = SPAWNS.get(key);
+        // computed out of any lock, two threads may both check the same chunk but never wait on each other
+        if (spawns == null) spawns = SPAWNS.putIfAbsent(key, structure.canSpawn(chunkX, chunkZ, source));
+        return spawns;
+    }
+
+    /**
+     * @return the structure of the library behind that one, the overworld variants of the nether structures share
+     * the attempts of the nether ones that way. The keys also hold the spacing, separation and salt since variants like
+     * the ruined portals of each dimension are placed differently.
+     */
+    private static Class<?> getType(RegionStructure<?, ?> structure) {
+        Class<?> type = structure.getClass();
+
+        while (type.getName().startsWith("kaptainwutax.minemap.") && type.getSuperclass() != null) {
+            type = type.getSuperclass();
+        }
+
+        return type;
+    }
+
+    /**
+     * A bounded map split in segments locked on their own, each one dropping its least recently used entry once full.
+     */
+    private static class Memo<V> {
+        private static final int SEGMENTS = 16;
+        private final List<Map<List<Object>, V>> segments = new ArrayList<>(SEGMENTS);
+
+        private Memo(int maxEntries) {
+            int maxPerSegment = Math.max(maxEntries / SEGMENTS, 1);
+
+            for (int i = 0; i < SEGMENTS; i++) {
+                this.segments.add(new LinkedHashMap<List<Object>, V>(16, 0.75F, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<List<Object>, V> eldest) {
+                        return this.size() > maxPerSegment;
+                    }
+                });
+            }
+        }
+
+        private Map<List<Object>, V> getSegment(List<Object> key) {
+            int hash = key.hashCode();
+            return this.segments.get((hash ^ (hash >>> 16)) & (SEGMENTS - 1));
+        }
+
+        private V get(List<Object> key) {
+            Map<List<Object>, V> segment = this.getSegment(key);
+
+            synchronized (segment) {
+                return segment.get(key);
+            }
+        }
+
+        /**
+         * @return the value already there if any, else that one
+         */
+        private V putIfAbsent(List<Object> key, V value) {
+            Map<List<Object>, V> segment = this.getSegment(key);
+
+            synchronized (segment) {
+                V previous = segment.putIfAbsent(key, value);
+                return previous == null ? value : previous;
+            }
+        }
     }
 
     static class SpiralIterator implements Iterable<RPos> {
@@ -1,11 +1,13 @@
 package kaptainwutax.minemap.ui.component;
 
+import kaptainwutax.featureutils.Feature;
 import kaptainwutax.minemap.ui.map.MapPanel;
 import kaptainwutax.mcutils.state.Dimension;
 import kaptainwutax.mcutils.version.MCVersion;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 
 public class TabGroup {
 
@@ -71,6 +73,14 @@ public class TabGroup {
         this.mapPanels.values().forEach(MapPanel::restart);
     }
 
+    public void invalidateFeatures(Predicate<Feature<?, ?>> affected) {
+        this.mapPanels.values().forEach(mapPanel -> mapPanel.invalidateFeatures(affected));
+    }
+
+    public void repaintAll() {
+        this.mapPanels.values().forEach(MapPanel::repaint);
+    }
+
     public void removeIfPresent(MapPanel mapPanel) {
         this.mapPanels.entrySet().removeIf(e -> e.getValue() == mapPanel);
     }
@@ -1,8 +1,10 @@
 package kaptainwutax.minemap.ui.component;
 
+import kaptainwutax.featureutils.Feature;
 import kaptainwutax.minemap.MineMap;
 import kaptainwutax.minemap.listener.Events;
 import kaptainwutax.minemap.ui.map.MapPanel;
+import kaptainwutax.minemap.ui.map.fragment.FragmentExecutor;
 import kaptainwutax.mcutils.state.Dimension;
 import kaptainwutax.mcutils.version.MCVersion;
 
@@ -14,6 +16,7 @@ import java.awt.event.KeyEvent;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class WorldTabs extends JTabbedPane {
@@ -30,6 +33,9 @@ public class WorldTabs extends JTabbedPane {
             Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(String.valueOf(map.getContext().worldSeed)), null);
             return true;
         });
+
+        // the generation of the tab on screen goes first
+        this.addChangeListener(e -> FragmentExecutor.getInstance().setSelected(this.getSelectedMapPanel()));
     }
 
     public void load(MCVersion version, String worldSeed, int threadCount, Collection<Dimension> dimensions) {
@@ -41,6 +47,7 @@ public class WorldTabs extends JTabbedPane {
     @Override
     public void remove(Component component) {
         if (component instanceof MapPanel) {
+            ((MapPanel) component).dispose();
             this.tabGroups.forEach(tabGroup -> tabGroup.removeIfPresent((MapPanel) component));
             this.tabGroups.removeIf(TabGroup::isEmpty);
         }
@@ -50,6 +57,7 @@ public class WorldTabs extends JTabbedPane {
 
     public void remove(TabGroup tabGroup) {
         for (MapPanel mapPanel : tabGroup.getMapPanels()) {
+            mapPanel.dispose();
             super.remove(mapPanel);
         }
         this.tabGroups.remove(tabGroup);
@@ -84,6 +92,18 @@ public class WorldTabs extends JTabbedPane {
         this.tabGroups.forEach(TabGroup::invalidateAll);
     }
 
+    public synchronized void invalidateFeatures(Predicate<Feature<?, ?>> affected) {
+        this.tabGroups.forEach(group -> group.invalidateFeatures(affected));
+    }
+
+    public synchronized void invalidateFeatures(MCVersion version, Predicate<Feature<?, ?>> affected) {
+        this.tabGroups.stream().filter(group -> group.getVersion() == version).forEach(group -> group.invalidateFeatures(affected));
+    }
+
+    public synchronized void repaintAll() {
+        this.tabGroups.forEach(TabGroup::repaintAll);
+    }
+
     public int addTabAndGetIndex(String title, Component component) {
         super.addTab(title, component);
         return this.getTabCount() - 1;
@@ -10,6 +10,10 @@ import javax.swing.*;
 import java.awt.*;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 
 import static kaptainwutax.minemap.util.data.Str.prettifyDashed;
@@ -72,9 +76,10 @@ public class SaltDialog extends Dialog {
         this.resetButton = new JButton("Reset salts for current version");
 
         this.resetButton.addMouseListener(Events.Mouse.onPressed(e -> {
+            Map<String, Integer> previous = new LinkedHashMap<>(Configs.SALTS.getSalts(version));
             Configs.SALTS.resetOverrides(version);
             Configs.SALTS.flush();
-            MineMap.INSTANCE.worldTabs.invalidateAll();
+            this.invalidateChanged(previous);
             this.resetButton.setEnabled(false);
             this.dispose();
         }));
@@ -85,6 +90,7 @@ public class SaltDialog extends Dialog {
     protected void create() {
         assert (numberSalts == salts.size());
         assert (numberSalts == saltsNames.size());
+        Map<String, Integer> previousSalts = new LinkedHashMap<>(Configs.SALTS.getSalts(version));
         for (int i = 0; i < numberSalts; i++) {
             String name = saltsNames.get(i).getText().split(" salt")[0];
             try {
@@ -101,11 +107,23 @@ public class SaltDialog extends Dialog {
             Configs.SALTS.addOverrideEntry(version, name, value);
         }
         Configs.SALTS.flush();
-        MineMap.INSTANCE.worldTabs.invalidateAll();
+        this.invalidateChanged(previousSalts);
         this.continueButton.setEnabled(false);
         this.dispose();
     }
 
+    /**
+     * Only the structures whose salt changed get their positions computed again, in the tabs of that version.
+     */
+    private void invalidateChanged(Map<String, Integer> previous) {
+        Set<String> changed = new HashSet<>();
+        Configs.SALTS.getSalts(version).forEach((name, value) -> {
+            if (value != null && !value.equals(previous.get(name))) changed.add(name);
+        });
+        if (changed.isEmpty()) return;
+        MineMap.INSTANCE.worldTabs.invalidateFeatures(version, feature -> changed.contains(feature.getName().toLowerCase().replace(" ", "_")));
+    }
+
     protected void cancel() {
         continueButton.setEnabled(false);
         dispose();
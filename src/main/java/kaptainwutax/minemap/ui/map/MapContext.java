@@ -2,6 +2,7 @@ package kaptainwutax.minemap.ui.map;
 
 import kaptainwutax.biomeutils.layer.BiomeLayer;
 import kaptainwutax.biomeutils.source.BiomeSource;
+import kaptainwutax.featureutils.Feature;
 import kaptainwutax.mcutils.version.UnsupportedVersion;
 import kaptainwutax.minemap.init.Configs;
 import kaptainwutax.mcutils.state.Dimension;
@@ -10,6 +11,8 @@ import kaptainwutax.terrainutils.ChunkGenerator;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 public class MapContext {
 
@@ -23,7 +26,10 @@ public class MapContext {
     private final ThreadLocal<Map<Dimension, BiomeSource>> biomeSource;
     private final ThreadLocal<Map<Dimension, ChunkGenerator>> chunkGenerators;
 
-    private int layerId;
+    private volatile int layerId;
+    // bumped on every invalidation so the fragments only compare one number per frame
+    private volatile int featuresVersion;
+    private final Map<String, Integer> featureVersions = new ConcurrentHashMap<>();
 
     public MapContext(long worldSeed, MapSettings settings) {
         this.version = settings.getVersion();
@@ -85,6 +91,26 @@ public class MapContext {
         return this;
     }
 
+    public int getFeaturesVersion() {
+        return this.featuresVersion;
+    }
+
+    public int getFeatureVersion(Feature<?, ?> feature) {
+        return this.featureVersions.getOrDefault(feature.getName(), 0);
+    }
+
+    /**
+     * Marks the positions of the matching features as stale, the fragments keep drawing the old ones until
+     * the scheduler computed them again, the biomes and the images are left untouched.
+     */
+    public synchronized void invalidateFeatures(Predicate<Feature<?, ?>> affected) {
+        for (Feature<?, ?> feature : this.settings.getAllFeatures()) {
+            if (affected.test(feature)) this.featureVersions.merge(feature.getName(), 1, Integer::sum);
+        }
+
+        this.featuresVersion++;
+    }
+
     public ChunkGenerator getChunkGenerator() {
         return this.getChunkGenerator(this.dimension);
     }
@@ -102,7 +128,25 @@ public class MapContext {
     }
 
     public BiomeLayer getBiomeLayer() {
-        return this.getBiomeSource().getLayer(this.layerId);
+        return this.getBiomeLayer(this.layerId);
+    }
+
+    public BiomeLayer getBiomeLayer(int layerId) {
+        return this.getBiomeSource().getLayer(layerId);
+    }
+
+    /**
+     * @return the finest layer below that one with at least that scale, or -1 if there is none
+     */
+    public int getPreviewLayerId(int layerId, int scale) {
+        BiomeSource source = this.getBiomeSource();
+        if (scale <= 0 || source.getLayer(layerId).getScale() >= scale) return -1;
+
+        for (int i = layerId - 1; i >= 0; i--) {
+            if (source.getLayer(i).getScale() >= scale) return i;
+        }
+
+        return -1;
     }
 
 }
@@ -8,11 +8,13 @@ import kaptainwutax.minemap.MineMap;
 import kaptainwutax.minemap.init.Configs;
 import kaptainwutax.minemap.listener.Events;
 import kaptainwutax.minemap.ui.dialog.RenameTabDialog;
+import kaptainwutax.minemap.ui.map.fragment.Fragment;
 import kaptainwutax.minemap.ui.map.interactive.Chest;
 import kaptainwutax.minemap.ui.map.tool.Area;
 import kaptainwutax.minemap.ui.map.tool.Circle;
 import kaptainwutax.minemap.ui.map.tool.Ruler;
 import kaptainwutax.minemap.ui.map.tool.Tool;
+import kaptainwutax.minemap.util.data.DrawInfo;
 import kaptainwutax.mcutils.util.data.Pair;
 import kaptainwutax.mcutils.util.pos.BPos;
 
@@ -24,7 +26,9 @@ import java.awt.*;
 import java.awt.event.InputEvent;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -33,7 +37,12 @@ import java.util.function.Supplier;
 public class MapManager {
 
     public static final int DEFAULT_REGION_SIZE = 512;
-    public final int blocksPerFragment;
+    // once zoomed out fragments grow up to that size so the number of tiles on screen stays about the same
+    public static final int MAX_REGION_SIZE = DEFAULT_REGION_SIZE << 6;
+    public static final double MIN_PIXELS_PER_FRAGMENT = 128.0D;
+    // the mouse moves are handled at most once per frame
+    public static final int HOVER_DELAY = 1000 / 60;
+    public volatile int blocksPerFragment;
     public final ArrayList<Tool> toolsList = new ArrayList<>();
     private final MapPanel panel;
     private final JPopupMenu popup;
@@ -44,6 +53,10 @@ public class MapManager {
     public Tool selectedTool = null;
 
     public Point mousePointer;
+    private final Timer hoverTimer;
+    private Point hoverPoint;
+    // the icons hovered as of the last update keyed by feature and position, only touched on the event thread
+    private Map<List<Object>, Fragment> hoveredIcons = new HashMap<>();
 
     public MapManager(MapPanel panel) {
         this(panel, DEFAULT_REGION_SIZE);
@@ -62,29 +75,24 @@ public class MapManager {
                 this.mousePointer = e.getPoint();
                 this.centerX += dx;
                 this.centerY += dy;
-                this.panel.repaint();
+                this.panel.repaintPanned();
             }
         }));
 
-        this.panel.addMouseMotionListener(Events.Mouse.onMoved(e -> {
-            BPos pos = this.getPos(e.getX(), e.getY());
-            int x = pos.getX();
-            int z = pos.getZ();
-            this.panel.scheduler.forEachFragment(fragment -> fragment.onHovered(pos.getX(), pos.getZ()));
-
-            SwingUtilities.invokeLater(() -> {
-                this.panel.leftBar.tooltip.updateBiomeDisplay(x, z);
-                this.panel.leftBar.tooltip.tooltip.repaint();
-                this.panel.repaint();
-            });
+        this.hoverTimer = new Timer(HOVER_DELAY, e -> this.updateHover());
+        this.hoverTimer.setRepeats(false);
 
+        this.panel.addMouseMotionListener(Events.Mouse.onMoved(e -> {
+            // the moves until the timer fires only leave their last point
+            this.hoverPoint = e.getPoint();
+            if (!this.hoverTimer.isRunning()) this.hoverTimer.start();
         }));
 
         this.panel.addMouseListener(Events.Mouse.onPressed(e -> {
             if (SwingUtilities.isLeftMouseButton(e)) {
                 this.mousePointer = e.getPoint();
                 BPos pos = this.getPos(e.getX(), e.getY());
-                this.panel.scheduler.forEachFragment(fragment -> fragment.onClicked(pos.getX(), pos.getZ()));
+                this.panel.scheduler.forEachFragment(fragment -> fragment.onClicked(pos));
                 if (selectedTool == null) {
                     this.panel.setCursor(Cursor.getPredefinedCursor(Cursor.MOVE_CURSOR));
                 } else {
@@ -185,6 +193,51 @@ public class MapManager {
         this.panel.setComponentPopupMenu(popup);
     }
 
+    /**
+     * Handles the last mouse move, only the icons whose hover state changed and the crosshair get repainted.
+     */
+    private void updateHover() {
+        Point point = this.hoverPoint;
+        if (point == null || this.panel.scheduler == null) return;
+        BPos pos = this.getPos(point.x, point.y);
+        this.panel.scheduler.forEachFragment(fragment -> fragment.onHovered(pos));
+        this.panel.leftBar.tooltip.updateBiomeDisplay(pos.getX(), pos.getZ());
+
+        // what is on screen, looking the fragments up again would queue the ones not loaded yet
+        Map<Fragment, DrawInfo> drawQueue = this.panel.getLastDrawQueue();
+        Map<List<Object>, Fragment> hovered = new HashMap<>();
+        drawQueue.forEach((fragment, info) -> fragment.forEachFeature(info.width, info.height, pos,
+                (feature, featurePos) -> hovered.put(Arrays.asList(feature, featurePos), fragment)));
+        if (hovered.keySet().equals(this.hoveredIcons.keySet())) return;
+
+        Map<List<Object>, Fragment> changed = new HashMap<>(this.hoveredIcons);
+        hovered.forEach((key, fragment) -> {
+            if (changed.remove(key) == null) changed.put(key, fragment);
+        });
+        this.hoveredIcons = hovered;
+
+        changed.forEach((key, fragment) -> {
+            DrawInfo info = drawQueue.get(fragment);
+            // the fragment went off screen since
+            if (info == null) return;
+            this.panel.repaint(this.getIconBounds(fragment, info, (Feature<?, ?>) key.get(0), (BPos) key.get(1)));
+        });
+
+        this.panel.repaint(this.panel.getCrossHairBounds());
+        this.panel.leftBar.tooltip.tooltip.repaint();
+    }
+
+    /**
+     * @return the screen area of that icon once hovered, with a margin for its extra info
+     */
+    private Rectangle getIconBounds(Fragment fragment, DrawInfo info, Feature<?, ?> feature, BPos pos) {
+        double distance = this.panel.context.getIconManager().getFor(feature).getHoverDistance(fragment, info.width, info.height, feature);
+        int half = (int) Math.ceil(distance * info.width / fragment.getSize()) + 4;
+        int x = info.x + (int) ((double) (pos.getX() - fragment.getX()) / fragment.getSize() * info.width);
+        int z = info.y + (int) ((double) (pos.getZ() - fragment.getZ()) / fragment.getSize() * info.height);
+        return new Rectangle(x - half, z - half, 2 * half, 2 * half);
+    }
+
     public static Runnable zoom(boolean zoomOut, boolean isModifier) {
         return () -> {
             if (MineMap.INSTANCE == null) return;
@@ -215,6 +268,7 @@ public class MapManager {
                 manager.centerX *= scaleFactor;
                 manager.centerY *= scaleFactor;
                 manager.pixelsPerFragment = newPixelsPerFragment;
+                manager.adaptFragmentSize();
                 manager.panel.repaint();
             } else {
                 int layerId = manager.panel.getContext().getLayerId();
@@ -224,7 +278,7 @@ public class MapManager {
                 if (manager.panel.getContext().getLayerId() != layerId) {
                     manager.panel.getContext().setLayerId(layerId);
                     manager.panel.leftBar.settings.layerDropdown.selectIfPresent(layerId);
-                    manager.panel.restart();
+                    manager.panel.repaint();
                 }
             }
         };
@@ -304,6 +358,37 @@ public class MapManager {
         this.panel.repaint();
     }
 
+    /**
+     * Doubles or halves the fragments in blocks and on screen at the same time, the zoom itself doesn't change.
+     */
+    public void adaptFragmentSize() {
+        while (this.pixelsPerFragment < MIN_PIXELS_PER_FRAGMENT && this.blocksPerFragment < MAX_REGION_SIZE) {
+            this.blocksPerFragment *= 2;
+            this.pixelsPerFragment *= 2.0D;
+        }
+
+        while (this.pixelsPerFragment >= 2.0D * MIN_PIXELS_PER_FRAGMENT && this.blocksPerFragment > DEFAULT_REGION_SIZE) {
+            this.blocksPerFragment /= 2;
+            this.pixelsPerFragment /= 2.0D;
+        }
+    }
+
+    /**
+     * @param layerScale the scale of the sampled biome layer
+     * @return the mip level at which fragments need to be sampled to get about one biome sample per pixel
+     */
+    public int getMipLevel(int layerScale) {
+        double samples = (double) this.blocksPerFragment / layerScale;
+        int level = 0;
+
+        while (samples >= 2.0D * this.pixelsPerFragment) {
+            samples /= 2.0D;
+            level++;
+        }
+
+        return level;
+    }
+
     public BPos getPos(double mouseX, double mouseY) {
         Vec3i screenSize = this.getScreenSize();
         double x = (mouseX - screenSize.getX() / 2.0D - centerX) / screenSize.getX();
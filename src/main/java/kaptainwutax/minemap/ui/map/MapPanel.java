@@ -1,5 +1,6 @@
 package kaptainwutax.minemap.ui.map;
 
+import kaptainwutax.featureutils.Feature;
 import kaptainwutax.minemap.ui.component.WorldTabs;
 import kaptainwutax.minemap.ui.map.fragment.Fragment;
 import kaptainwutax.minemap.ui.map.fragment.FragmentScheduler;
@@ -16,11 +17,18 @@ import java.awt.*;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.image.BufferedImage;
-import java.util.HashMap;
-import java.util.Map;
+import java.awt.image.VolatileImage;
+import java.util.List;
+import java.util.*;
+import java.util.function.Predicate;
 
 public class MapPanel extends JPanel {
 
+    // how far in pixels the icons of a fragment can reach out of it, those fragments are drawn if the clip is there
+    private static final int ICON_MARGIN = 64;
+    // past that many areas to redraw they are merged into one
+    private static final int MAX_DIRTY_REGIONS = 16;
+
     public final MapContext context;
     public final MapManager manager;
     public final MapLeftSideBar leftBar;
@@ -28,6 +36,18 @@ public class MapPanel extends JPanel {
     public final int threadCount;
     public FragmentScheduler scheduler;
     private AWTGLCanvas canvas;
+    // the map as last composed, a pan only shifts it and draws the strips it exposes
+    private VolatileImage buffer;
+    // screen position of the block 0 0 when the buffer was composed, in pixels
+    private double bufferOriginX;
+    private double bufferOriginY;
+    private boolean bufferComposed;
+    private double bufferPixelsPerFragment;
+    private int bufferBlocksPerFragment;
+    // areas of the buffer to redraw on the next paint, written by any thread
+    private final List<Rectangle> dirtyRegions = new ArrayList<>();
+    // fragments of the last paint where they were drawn, what the cursor is over
+    private Map<Fragment, DrawInfo> lastDrawQueue = Collections.emptyMap();
 
     public MapPanel(MCVersion version, Dimension dimension, long worldSeed, int threadCount) {
         this.threadCount = threadCount;
@@ -85,22 +105,176 @@ public class MapPanel extends JPanel {
         this.repaint();
     }
 
+    /**
+     * Stops the generation once the tab is closed, the work shared with the other tabs stays cached.
+     */
+    public void dispose() {
+        if (this.scheduler != null) this.scheduler.terminate();
+    }
+
+    /**
+     * Recomputes the positions of the matching features in the background, the current ones stay drawn meanwhile.
+     */
+    public void invalidateFeatures(Predicate<Feature<?, ?>> affected) {
+        this.context.invalidateFeatures(affected);
+        this.repaint();
+    }
+
+    @Override
+    public void repaint(long time, int x, int y, int width, int height) {
+        // also called by swing before the fields are set
+        if (this.dirtyRegions != null) this.invalidateBuffer(new Rectangle(x, y, width, height));
+        super.repaint(time, x, y, width, height);
+    }
+
+    /**
+     * Repaints after the view only got moved, the pixels still on screen are shifted instead of drawn again.
+     */
+    public void repaintPanned() {
+        super.repaint(0, 0, 0, this.getWidth(), this.getHeight());
+    }
+
+    private void invalidateBuffer(Rectangle region) {
+        synchronized (this.dirtyRegions) {
+            if (this.dirtyRegions.size() >= MAX_DIRTY_REGIONS) {
+                for (Rectangle dirty : this.dirtyRegions) {
+                    region = region.union(dirty);
+                }
+
+                this.dirtyRegions.clear();
+            }
+
+            this.dirtyRegions.add(region);
+        }
+    }
+
+    private List<Rectangle> takeDirtyRegions() {
+        synchronized (this.dirtyRegions) {
+            List<Rectangle> regions = new ArrayList<>(this.dirtyRegions);
+            this.dirtyRegions.clear();
+            return regions;
+        }
+    }
+
     @Override
     public void paintComponent(Graphics graphics) {
         super.paintComponent(graphics);
         this.scheduler.purge();
-        this.drawMap(graphics);
+        if (!this.drawBuffer(graphics)) this.drawMap(graphics);
         this.drawCrossHair(graphics);
     }
 
+    /**
+     * Brings the back buffer up to date then draws it, only its dirty areas and the strips exposed by a pan are
+     * drawn again.
+     *
+     * @return false if there is no buffer to draw with, the map should be drawn directly then
+     */
+    private boolean drawBuffer(Graphics graphics) {
+        int w = this.getWidth(), h = this.getHeight();
+        GraphicsConfiguration config = this.getGraphicsConfiguration();
+        if (w <= 0 || h <= 0 || config == null) return false;
+
+        do {
+            boolean incompatible = this.buffer == null || this.buffer.getWidth() != w || this.buffer.getHeight() != h;
+            int status = incompatible ? VolatileImage.IMAGE_INCOMPATIBLE : this.buffer.validate(config);
+
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                if (this.buffer != null) this.buffer.flush();
+                this.buffer = config.createCompatibleVolatileImage(w, h);
+                if (this.buffer == null) return false;
+            }
+
+            double originX = this.getOriginX(), originY = this.getOriginY();
+            List<Rectangle> regions = this.takeDirtyRegions();
+            boolean redraw = status != VolatileImage.IMAGE_OK || !this.bufferComposed
+                    || this.bufferPixelsPerFragment != this.manager.pixelsPerFragment
+                    || this.bufferBlocksPerFragment != this.manager.blocksPerFragment;
+            int dx = 0, dy = 0;
+
+            if (!redraw) {
+                double shiftX = originX - this.bufferOriginX;
+                double shiftY = originY - this.bufferOriginY;
+                dx = (int) Math.rint(shiftX);
+                dy = (int) Math.rint(shiftY);
+                // the fragments only land on the same pixels shifted by whole pixels
+                redraw = Math.abs(shiftX - dx) > 1.0E-6D || Math.abs(shiftY - dy) > 1.0E-6D || Math.abs(dx) >= w || Math.abs(dy) >= h;
+            }
+
+            Graphics2D g2d = this.buffer.createGraphics();
+
+            try {
+                if (redraw) {
+                    regions = Collections.singletonList(new Rectangle(0, 0, w, h));
+                } else if (dx != 0 || dy != 0) {
+                    g2d.copyArea(0, 0, w, h, dx, dy);
+                    // the areas marked before the pan may have been moved with it
+                    for (int i = regions.size() - 1; i >= 0; i--) {
+                        Rectangle moved = new Rectangle(regions.get(i));
+                        moved.translate(dx, dy);
+                        regions.add(moved);
+                    }
+                    if (dx != 0) regions.add(dx > 0 ? new Rectangle(0, 0, dx, h) : new Rectangle(w + dx, 0, -dx, h));
+                    if (dy != 0) regions.add(dy > 0 ? new Rectangle(0, 0, w, dy) : new Rectangle(0, h + dy, w, -dy));
+                }
+
+                this.bufferOriginX = originX;
+                this.bufferOriginY = originY;
+                this.bufferComposed = true;
+                this.bufferPixelsPerFragment = this.manager.pixelsPerFragment;
+                this.bufferBlocksPerFragment = this.manager.blocksPerFragment;
+
+                // one queue for all the regions, each only draws the fragments under it
+                Map<Fragment, DrawInfo> fallbacks = new HashMap<>();
+                Map<Fragment, DrawInfo> drawQueue = this.getDrawQueue(fallbacks);
+                this.lastDrawQueue = drawQueue;
+
+                for (Rectangle region : regions) {
+                    Rectangle clipped = region.intersection(new Rectangle(0, 0, w, h));
+                    if (clipped.isEmpty()) continue;
+                    g2d.setClip(clipped);
+                    g2d.setColor(this.getBackground());
+                    g2d.fillRect(clipped.x, clipped.y, clipped.width, clipped.height);
+                    this.drawMap(g2d, drawQueue, fallbacks);
+                }
+            } finally {
+                g2d.dispose();
+            }
+
+            graphics.drawImage(this.buffer, 0, 0, null);
+        } while (this.buffer.contentsLost());
+
+        return true;
+    }
+
     public void drawMap(Graphics graphics) {
-        Map<Fragment, DrawInfo> drawQueue = this.getDrawQueue();
+        Map<Fragment, DrawInfo> fallbacks = new HashMap<>();
+        Map<Fragment, DrawInfo> drawQueue = this.getDrawQueue(fallbacks);
+        this.lastDrawQueue = drawQueue;
+        this.drawMap(graphics, drawQueue, fallbacks);
+    }
+
+    private void drawMap(Graphics graphics, Map<Fragment, DrawInfo> drawQueue, Map<Fragment, DrawInfo> fallbacks) {
+        Rectangle clip = graphics.getClipBounds();
+
+        // a partial repaint only draws the fragments under it
+        if (clip != null) {
+            clip.grow(ICON_MARGIN, ICON_MARGIN);
+            drawQueue = filter(drawQueue, clip);
+            fallbacks = filter(fallbacks, clip);
+        }
+
+        fallbacks.forEach((fragment, info) -> fragment.drawBiomes(graphics, info));
         drawQueue.forEach((fragment, info) -> fragment.drawBiomes(graphics, info));
         drawQueue.forEach((fragment, info) -> fragment.drawFeatures(graphics, info));
         drawQueue.forEach((fragment, info) -> fragment.drawTools(graphics, info, this.manager.toolsList));
 
     }
 
+    public Rectangle getCrossHairBounds() {
+        return new Rectangle(this.getWidth() / 2 - 4, this.getHeight() / 2 - 4, 8, 8);
+    }
+
     public void drawCrossHair(Graphics graphics) {
         graphics.setXORMode(Color.BLACK);
         int cx = this.getWidth() / 2, cz = this.getHeight() / 2;
@@ -109,7 +283,21 @@ public class MapPanel extends JPanel {
         graphics.setPaintMode();
     }
 
+    /**
+     * @return the fragments as drawn by the last paint, unlike {@link #getDrawQueue()} nothing gets loaded
+     */
+    public Map<Fragment, DrawInfo> getLastDrawQueue() {
+        return this.lastDrawQueue;
+    }
+
     public Map<Fragment, DrawInfo> getDrawQueue() {
+        return this.getDrawQueue(null);
+    }
+
+    /**
+     * @param fallbacks if not null, receives the fragments of another zoom level covering the regions still loading
+     */
+    public Map<Fragment, DrawInfo> getDrawQueue(Map<Fragment, DrawInfo> fallbacks) {
         Map<Fragment, DrawInfo> drawQueue = new HashMap<>();
         int w = this.getWidth(), h = this.getHeight();
 
@@ -118,24 +306,50 @@ public class MapPanel extends JPanel {
         RPos regionMin = min.toRegionPos(this.manager.blocksPerFragment);
         RPos regionMax = max.toRegionPos(this.manager.blocksPerFragment);
         double scaleFactor = this.manager.pixelsPerFragment / this.manager.blocksPerFragment;
+        double originX = this.getOriginX(), originZ = this.getOriginY();
 
         for (int regionX = regionMin.getX(); regionX <= regionMax.getX(); regionX++) {
             for (int regionZ = regionMin.getZ(); regionZ <= regionMax.getZ(); regionZ++) {
                 Fragment fragment = this.scheduler.getFragmentAt(regionX, regionZ);
-                int blockOffsetX = regionMin.toBlockPos().getX() - min.getX();
-                int blockOffsetZ = regionMin.toBlockPos().getZ() - min.getZ();
-                double pixelOffsetX = blockOffsetX * scaleFactor;
-                double pixelOffsetZ = blockOffsetZ * scaleFactor;
-                double x = (regionX - regionMin.getX()) * this.manager.pixelsPerFragment + pixelOffsetX;
-                double z = (regionZ - regionMin.getZ()) * this.manager.pixelsPerFragment + pixelOffsetZ;
+
+                if (fragment == FragmentScheduler.LOADING_FRAGMENT && fallbacks != null) {
+                    this.scheduler.forEachFallback(regionX, regionZ, fallback -> fallbacks.computeIfAbsent(fallback, f -> new DrawInfo(
+                            (int) Math.floor(f.getX() * scaleFactor + originX), (int) Math.floor(f.getZ() * scaleFactor + originZ),
+                            (int) (f.getSize() * scaleFactor), (int) (f.getSize() * scaleFactor))));
+                }
+
+                // from the exact origin and floored, so a pan of whole pixels moves every fragment by exactly that many
+                double x = regionX * this.manager.pixelsPerFragment + originX;
+                double z = regionZ * this.manager.pixelsPerFragment + originZ;
                 int size = (int) (this.manager.pixelsPerFragment);
-                drawQueue.put(fragment, new DrawInfo((int) x, (int) z, size, size));
+                drawQueue.put(fragment, new DrawInfo((int) Math.floor(x), (int) Math.floor(z), size, size));
             }
         }
 
         return drawQueue;
     }
 
+    /**
+     * @return the screen position of the block 0 0 in pixels, unrounded, see {@link MapManager#getPos(double, double)}
+     */
+    private double getOriginX() {
+        return this.getWidth() / 2.0D + this.manager.centerX;
+    }
+
+    private double getOriginY() {
+        return this.getHeight() / 2.0D + this.manager.centerY;
+    }
+
+    private static Map<Fragment, DrawInfo> filter(Map<Fragment, DrawInfo> queue, Rectangle clip) {
+        Map<Fragment, DrawInfo> filtered = new HashMap<>();
+
+        queue.forEach((fragment, info) -> {
+            if (clip.intersects(info.x, info.y, info.width, info.height)) filtered.put(fragment, info);
+        });
+
+        return filtered;
+    }
+
     public BufferedImage getScreenshot() {
         BufferedImage image = new BufferedImage(this.getWidth(), this.getHeight(), BufferedImage.TYPE_INT_RGB);
         this.drawMap(image.getGraphics());
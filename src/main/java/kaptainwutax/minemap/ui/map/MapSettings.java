@@ -3,7 +3,9 @@ package kaptainwutax.minemap.ui.map;
 import com.google.gson.annotations.Expose;
 import kaptainwutax.biomeutils.Biome;
 import kaptainwutax.featureutils.Feature;
+import kaptainwutax.minemap.init.Configs;
 import kaptainwutax.minemap.init.Features;
+import kaptainwutax.minemap.ui.map.fragment.BiomePalette;
 import kaptainwutax.mcutils.state.Dimension;
 import kaptainwutax.mcutils.version.MCVersion;
 
@@ -30,6 +32,9 @@ public class MapSettings {
     private Map<Class<? extends Feature<?, ?>>, Feature<?, ?>> featureTypes;
     private Map<Class<? extends Feature<?, ?>>, Boolean> featureStates;
     private Map<Biome, Boolean> biomeStates;
+    private volatile BiomePalette biomePalette;
+    // bumped whenever a feature gets shown, the fragments only compute the shown features
+    private volatile int shownFeaturesVersion;
 
     public MapSettings(Dimension dimension) {
         this(MCVersion.values()[0], dimension);
@@ -75,6 +80,8 @@ public class MapSettings {
                         e -> this.biomes.getOrDefault(e.getName(), true)
                 ));
 
+        this.biomePalette = null;
+        this.shownFeaturesVersion++;
         return this;
     }
 
@@ -84,15 +91,17 @@ public class MapSettings {
     }
 
     public MapSettings setState(Class<? extends Feature<?, ?>> feature, boolean state) {
-        this.featureStates.replace(feature, state);
+        Boolean previous = this.featureStates.replace(feature, state);
         Feature<?, ?> f = this.featureTypes.get(feature);
         if (f != null) this.features.put(f.getName(), state);
+        if (state && previous != null && !previous) this.shownFeaturesVersion++;
         return this;
     }
 
     public MapSettings setState(Biome biome, boolean state) {
         this.biomeStates.replace(biome, state);
         this.biomes.put(biome.getName(), state);
+        this.biomePalette = null;
         return this;
     }
 
@@ -187,6 +196,23 @@ public class MapSettings {
                 .collect(Collectors.toSet());
     }
 
+    /**
+     * @return the palette of that style for the active biomes, the same instance until either changes
+     */
+    public BiomePalette getBiomePalette(String style) {
+        BiomePalette palette = this.biomePalette;
+
+        if (palette == null || !palette.getStyle().equals(style)) {
+            this.biomePalette = palette = BiomePalette.of(style, Configs.BIOME_COLORS.getColorTable(style), this.getActiveBiomes());
+        }
+
+        return palette;
+    }
+
+    public int getShownFeaturesVersion() {
+        return this.shownFeaturesVersion;
+    }
+
     public boolean isActive(Feature<?, ?> feature) {
         return this.featureStates.getOrDefault(feature.getClass(), false)
                 && this.featureTypes.containsKey(feature.getClass());
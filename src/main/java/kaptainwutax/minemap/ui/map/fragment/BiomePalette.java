@@ -0,0 +1,75 @@
+package kaptainwutax.minemap.ui.map.fragment;
+
+import kaptainwutax.biomeutils.Biome;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ARGB color of every biome id for one style and one set of active biomes, the inactive biomes are darkened.
+ * A palette never changes once built, a new one replaces it when the style or the active biomes change so the
+ * fragments can tell by identity whether their image is stale.
+ */
+public final class BiomePalette {
+
+    // biome ids past that don't fit in an indexed image
+    public static final int INDEXED_SIZE = 256;
+    // shared by every tab with the same style and active biomes, dropped as a whole past that size
+    private static final int MAX_PALETTES = 64;
+    private static final Map<List<Object>, BiomePalette> PALETTES = new ConcurrentHashMap<>();
+
+    private final String style;
+    private final int[] colors;
+    private final IndexColorModel colorModel;
+
+    private BiomePalette(String style, int[] styleColors, Set<Biome> activeBiomes) {
+        this.style = style;
+        this.colors = new int[styleColors.length];
+
+        for (int id = 0; id < styleColors.length; id++) {
+            Biome biome = Biome.REGISTRY.get(id);
+            if (biome == null) continue;
+            this.colors[id] = activeBiomes.contains(biome) ? styleColors[id] : makeInactive(styleColors[id]);
+        }
+
+        int[] indexed = Arrays.copyOf(this.colors, INDEXED_SIZE);
+        this.colorModel = new IndexColorModel(8, INDEXED_SIZE, indexed, 0, false, -1, DataBuffer.TYPE_BYTE);
+    }
+
+    public static BiomePalette of(String style, int[] styleColors, Set<Biome> activeBiomes) {
+        List<Object> key = Arrays.asList(style, activeBiomes);
+        BiomePalette palette = PALETTES.get(key);
+        if (palette != null) return palette;
+        if (PALETTES.size() >= MAX_PALETTES) PALETTES.clear();
+        return PALETTES.computeIfAbsent(key, k -> new BiomePalette(style, styleColors, activeBiomes));
+    }
+
+    private static int makeInactive(int argb) {
+        int r = (argb >> 16) & 0xFF, g = (argb >> 8) & 0xFF, b = argb & 0xFF, sum = r + g + b;
+        return (argb & 0xFF000000) | ((r + sum) / 30) << 16 | ((g + sum) / 30) << 8 | (b + sum) / 30;
+    }
+
+    public String getStyle() {
+        return this.style;
+    }
+
+    /**
+     * @return the colors of the first {@link #INDEXED_SIZE} biome ids, images using it get recolored by swapping it
+     */
+    public IndexColorModel getColorModel() {
+        return this.colorModel;
+    }
+
+    /**
+     * @return the color of that biome id, 0 if it is not a biome
+     */
+    public int getColor(int biome) {
+        return biome >= 0 && biome < this.colors.length ? this.colors[biome] : 0;
+    }
+
+}
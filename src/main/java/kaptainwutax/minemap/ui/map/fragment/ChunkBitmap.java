@@ -0,0 +1,146 @@
+package kaptainwutax.minemap.ui.map.fragment;
+
+import kaptainwutax.minemap.util.data.DrawInfo;
+import kaptainwutax.mcutils.util.pos.BPos;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Positions of a chunk-granular feature kept as one bit per chunk of a fragment, row by row, each position being
+ * the corner of a chunk set. It is drawn as a single translucent image of one pixel per chunk instead of an icon
+ * per chunk. Never modified once built.
+ */
+public class ChunkBitmap extends AbstractList<BPos> {
+
+    private final int chunkX;
+    private final int chunkZ;
+    private final int size;
+    private final BitSet bits;
+    private final int count;
+    private volatile BufferedImage image;
+
+    public ChunkBitmap(int chunkX, int chunkZ, int size, BitSet bits) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.size = size;
+        this.bits = bits;
+        this.count = bits.cardinality();
+    }
+
+    /**
+     * @return the bitmap of those positions in that fragment, the ones out of it are dropped
+     */
+    public static ChunkBitmap of(Fragment fragment, List<BPos> positions) {
+        if (positions instanceof ChunkBitmap) return (ChunkBitmap) positions;
+        int chunkX = fragment.getX() >> 4, chunkZ = fragment.getZ() >> 4, size = Math.max(fragment.getSize() >> 4, 1);
+        BitSet bits = new BitSet(size * size);
+
+        for (BPos pos : positions) {
+            int x = (pos.getX() >> 4) - chunkX, z = (pos.getZ() >> 4) - chunkZ;
+            if (x >= 0 && x < size && z >= 0 && z < size) bits.set(z * size + x);
+        }
+
+        return new ChunkBitmap(chunkX, chunkZ, size, bits);
+    }
+
+    public boolean isSet(int chunkX, int chunkZ) {
+        int x = chunkX - this.chunkX, z = chunkZ - this.chunkZ;
+        return x >= 0 && x < this.size && z >= 0 && z < this.size && this.bits.get(z * this.size + x);
+    }
+
+    private BPos getPos(int bit) {
+        return new BPos((this.chunkX + bit % this.size) << 4, 0, (this.chunkZ + bit / this.size) << 4);
+    }
+
+    @Override
+    public BPos get(int index) {
+        if (index < 0 || index >= this.count) throw new IndexOutOfBoundsException(String.valueOf(index));
+        int bit = this.bits.nextSetBit(0);
+
+        for (int i = 0; i < index; i++) {
+            bit = this.bits.nextSetBit(bit + 1);
+        }
+
+        return this.getPos(bit);
+    }
+
+    @Override
+    public int size() {
+        return this.count;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof BPos)) return false;
+        BPos pos = (BPos) o;
+        return (pos.getX() & 15) == 0 && (pos.getZ() & 15) == 0 && this.isSet(pos.getX() >> 4, pos.getZ() >> 4);
+    }
+
+    @Override
+    public Iterator<BPos> iterator() {
+        return new Iterator<BPos>() {
+            private int bit = bits.nextSetBit(0);
+
+            @Override
+            public boolean hasNext() {
+                return this.bit >= 0;
+            }
+
+            @Override
+            public BPos next() {
+                if (this.bit < 0) throw new NoSuchElementException();
+                BPos pos = getPos(this.bit);
+                this.bit = bits.nextSetBit(this.bit + 1);
+                return pos;
+            }
+        };
+    }
+
+    public long getApproximateSize() {
+        BufferedImage image = this.image;
+        return 64L + this.bits.size() / 8 + (image == null ? 0 : (long) this.size * this.size / 8);
+    }
+
+    /**
+     * Draws the chunks set over the whole fragment, the image is built on the first draw then kept.
+     *
+     * @param argb the color of the chunks set, usually translucent
+     */
+    public void draw(Graphics graphics, DrawInfo info, int argb) {
+        BufferedImage image = this.image;
+
+        if (image == null || ((IndexColorModel) image.getColorModel()).getRGB(1) != argb) {
+            this.image = image = this.createImage(argb);
+        }
+
+        Graphics2D g2d = (Graphics2D) graphics;
+        Object interpolation = g2d.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+        // the chunks stay sharp squares at any zoom
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g2d.drawImage(image, info.x, info.y, info.width, info.height, null);
+        if (interpolation != null) g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+    }
+
+    private BufferedImage createImage(int argb) {
+        // one bit per pixel, the index 0 is transparent
+        IndexColorModel colorModel = new IndexColorModel(1, 2, new int[] {0, argb}, 0, true, 0, DataBuffer.TYPE_BYTE);
+        BufferedImage image = new BufferedImage(this.size, this.size, BufferedImage.TYPE_BYTE_BINARY, colorModel);
+        WritableRaster raster = image.getRaster();
+
+        for (int bit = this.bits.nextSetBit(0); bit >= 0; bit = this.bits.nextSetBit(bit + 1)) {
+            raster.setSample(bit % this.size, bit / this.size, 0, 1);
+        }
+
+        return image;
+    }
+
+}
@@ -0,0 +1,134 @@
+package kaptainwutax.minemap.ui.map.fragment;
+
+import kaptainwutax.featureutils.Feature;
+import kaptainwutax.minemap.ui.map.IconManager;
+import kaptainwutax.minemap.ui.map.icon.ChunkSweepIcon;
+import kaptainwutax.minemap.ui.map.icon.IconRenderer;
+import kaptainwutax.mcutils.rand.ChunkRand;
+import kaptainwutax.mcutils.util.pos.BPos;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests every chunk-granular feature of a fragment in one pass, each chunk is visited once and shares its
+ * ChunkRand with all of the features. The hits land in one bitset per feature indexed like the chunks of the
+ * fragment, row by row, and only the chunks set get their position computed.
+ */
+public class ChunkSweep {
+
+    // rows of chunks per subtask, a 512 blocks fragment has 32 of them
+    private static final int BAND_ROWS = 8;
+
+    private final Fragment fragment;
+    private final List<Feature<?, ?>> features;
+    private final List<ChunkSweepIcon> icons = new ArrayList<>();
+    private final int chunkX;
+    private final int chunkZ;
+    private final int size;
+
+    public ChunkSweep(Fragment fragment, List<Feature<?, ?>> features, IconManager iconManager) {
+        this.fragment = fragment;
+        this.features = features;
+        this.chunkX = fragment.getX() >> 4;
+        this.chunkZ = fragment.getZ() >> 4;
+        // the positions out of the fragment are dropped anyway, so the chunks around it are not tested
+        this.size = Math.max(fragment.getSize() >> 4, 1);
+
+        for (Feature<?, ?> feature : features) {
+            this.icons.add((ChunkSweepIcon) iconManager.getFor(feature));
+        }
+    }
+
+    public static boolean isSwept(IconManager iconManager, Feature<?, ?> feature) {
+        IconRenderer renderer = iconManager.getFor(feature);
+        return renderer instanceof ChunkSweepIcon && ((ChunkSweepIcon) renderer).isSwept(feature);
+    }
+
+    public static boolean isBitmap(IconManager iconManager, Feature<?, ?> feature) {
+        return isSwept(iconManager, feature) && ((ChunkSweepIcon) iconManager.getFor(feature)).isBitmap(feature);
+    }
+
+    /**
+     * @return the chunks each feature was found in, in the order of the features
+     */
+    public BitSet[] sweep() {
+        List<Integer> bands = new ArrayList<>();
+
+        for (int row = 0; row < this.size; row += BAND_ROWS) {
+            bands.add(row);
+        }
+
+        // the bands set bits of the same words, so each one fills its own bitsets which are merged after
+        BitSet[] hits = this.newBitSets();
+
+        for (BitSet[] band : Fragment.forkAll(bands, row -> this.sweep(row, Math.min(row + BAND_ROWS, this.size)))) {
+            for (int i = 0; i < hits.length; i++) {
+                hits[i].or(band[i]);
+            }
+        }
+
+        return hits;
+    }
+
+    private BitSet[] sweep(int rowStart, int rowEnd) {
+        BitSet[] hits = this.newBitSets();
+        ChunkRand rand = new ChunkRand();
+
+        for (int z = rowStart; z < rowEnd; z++) {
+            this.fragment.checkCancelled();
+            for (int x = 0; x < this.size; x++) {
+                for (int i = 0; i < hits.length; i++) {
+                    if (this.icons.get(i).testChunk(this.features.get(i), this.fragment, this.chunkX + x, this.chunkZ + z, rand)) {
+                        hits[i].set(z * this.size + x);
+                    }
+                }
+            }
+        }
+
+        return hits;
+    }
+
+    private BitSet[] newBitSets() {
+        BitSet[] hits = new BitSet[this.features.size()];
+
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = new BitSet(this.size * this.size);
+        }
+
+        return hits;
+    }
+
+    /**
+     * Sweeps the fragment and turns the hits into the positions of the icons, or keeps them as they are for the
+     * features drawn as a bitmap.
+     */
+    public Map<Feature<?, ?>, List<BPos>> getPositions() {
+        BitSet[] hits = this.sweep();
+        Map<Feature<?, ?>, List<BPos>> positions = new LinkedHashMap<>();
+        ChunkRand rand = new ChunkRand();
+
+        for (int i = 0; i < hits.length; i++) {
+            if (this.icons.get(i).isBitmap(this.features.get(i))) {
+                positions.put(this.features.get(i), new ChunkBitmap(this.chunkX, this.chunkZ, this.size, hits[i]));
+                continue;
+            }
+
+            List<BPos> list = new ArrayList<>(hits[i].cardinality());
+
+            for (int bit = hits[i].nextSetBit(0); bit >= 0; bit = hits[i].nextSetBit(bit + 1)) {
+                BPos pos = this.icons.get(i).getPosition(this.features.get(i), this.fragment,
+                        this.chunkX + bit % this.size, this.chunkZ + bit / this.size, rand);
+                if (pos != null) list.add(pos);
+            }
+
+            positions.put(this.features.get(i), list);
+        }
+
+        return positions;
+    }
+
+}
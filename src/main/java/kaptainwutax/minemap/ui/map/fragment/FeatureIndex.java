@@ -0,0 +1,126 @@
+package kaptainwutax.minemap.ui.map.fragment;
+
+import kaptainwutax.featureutils.Feature;
+import kaptainwutax.minemap.ui.map.IconManager;
+import kaptainwutax.minemap.ui.map.MapSettings;
+import kaptainwutax.minemap.ui.map.icon.IconRenderer;
+import kaptainwutax.mcutils.util.pos.BPos;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * The icons of a fragment bucketed in a grid of cells, so finding the ones under the cursor only visits the cells
+ * around it instead of every position. The entries of a cell are contiguous in flat arrays. Built once per set of
+ * features of the fragment and never modified, the overlays have no icon and are left out.
+ */
+public class FeatureIndex {
+
+    // cells per side, 32 blocks each for a 512 blocks fragment
+    private static final int CELLS = 16;
+
+    private final Fragment fragment;
+    private final Map<Feature<?, ?>, List<BPos>> source;
+    private final int cellSize;
+    private final Feature<?, ?>[] features;
+    private final BPos[] positions;
+    // entries of the cell i are in [cellStart[i], cellStart[i + 1])
+    private final int[] cellStart = new int[CELLS * CELLS + 1];
+
+    public FeatureIndex(Fragment fragment, Map<Feature<?, ?>, List<BPos>> source) {
+        this.fragment = fragment;
+        this.source = source;
+        this.cellSize = Math.max(fragment.getSize() / CELLS, 1);
+        int count = 0;
+
+        for (List<BPos> positions : source.values()) {
+            if (positions == null || positions instanceof ChunkBitmap) continue;
+
+            for (BPos pos : positions) {
+                this.cellStart[this.getCell(pos) + 1]++;
+                count++;
+            }
+        }
+
+        for (int i = 0; i < CELLS * CELLS; i++) {
+            this.cellStart[i + 1] += this.cellStart[i];
+        }
+
+        this.features = new Feature<?, ?>[count];
+        this.positions = new BPos[count];
+        int[] next = new int[CELLS * CELLS];
+        System.arraycopy(this.cellStart, 0, next, 0, next.length);
+
+        for (Map.Entry<Feature<?, ?>, List<BPos>> entry : source.entrySet()) {
+            if (entry.getValue() == null || entry.getValue() instanceof ChunkBitmap) continue;
+
+            for (BPos pos : entry.getValue()) {
+                int index = next[this.getCell(pos)]++;
+                this.features[index] = entry.getKey();
+                this.positions[index] = pos;
+            }
+        }
+    }
+
+    public boolean isFor(Map<Feature<?, ?>, List<BPos>> source) {
+        return this.source == source;
+    }
+
+    public int size() {
+        return this.positions.length;
+    }
+
+    private int getCell(BPos pos) {
+        return this.getCellZ(pos.getZ()) * CELLS + this.getCellX(pos.getX());
+    }
+
+    private int getCellX(double blockX) {
+        return (int) Math.max(Math.min(Math.floor((blockX - this.fragment.getX()) / this.cellSize), CELLS - 1), 0);
+    }
+
+    private int getCellZ(double blockZ) {
+        return (int) Math.max(Math.min(Math.floor((blockZ - this.fragment.getZ()) / this.cellSize), CELLS - 1), 0);
+    }
+
+    /**
+     * Passes the shown icons under that position at that size of fragment to the consumer, in no particular order.
+     */
+    public void forEachHovered(int width, int height, BPos checkPos, BiConsumer<Feature<?, ?>, BPos> consumer) {
+        if (this.positions.length == 0) return;
+        MapSettings settings = this.fragment.getContext().getSettings();
+        IconManager iconManager = this.fragment.getContext().getIconManager();
+        double distance = -1.0D;
+
+        for (Feature<?, ?> feature : this.source.keySet()) {
+            if (!settings.isActive(feature)) continue;
+            distance = Math.max(distance, iconManager.getFor(feature).getHoverDistance(this.fragment, width, height, feature));
+        }
+
+        if (distance < 0.0D) return;
+        int x = checkPos.getX(), z = checkPos.getZ();
+        int minX = this.fragment.getX(), minZ = this.fragment.getZ(), size = this.fragment.getSize();
+        // nothing of this fragment can reach the cursor
+        if (x + distance < minX || x - distance >= minX + size || z + distance < minZ || z - distance >= minZ + size) return;
+
+        int cellX0 = this.getCellX(x - distance), cellX1 = this.getCellX(x + distance);
+        int cellZ0 = this.getCellZ(z - distance), cellZ1 = this.getCellZ(z + distance);
+
+        for (int cellZ = cellZ0; cellZ <= cellZ1; cellZ++) {
+            for (int cellX = cellX0; cellX <= cellX1; cellX++) {
+                int cell = cellZ * CELLS + cellX;
+
+                for (int i = this.cellStart[cell]; i < this.cellStart[cell + 1]; i++) {
+                    Feature<?, ?> feature = this.features[i];
+                    if (!settings.isActive(feature)) continue;
+                    IconRenderer renderer = iconManager.getFor(feature);
+
+                    if (renderer.isHovered(this.fragment, checkPos, this.positions[i], width, height, feature)) {
+                        consumer.accept(feature, this.positions[i]);
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -1,11 +1,11 @@
 package kaptainwutax.minemap.ui.map.fragment;
 
-import kaptainwutax.biomeutils.Biome;
 import kaptainwutax.biomeutils.layer.BiomeLayer;
 import kaptainwutax.featureutils.Feature;
 import kaptainwutax.minemap.init.Configs;
 import kaptainwutax.minemap.ui.map.IconManager;
 import kaptainwutax.minemap.ui.map.MapContext;
+import kaptainwutax.minemap.ui.map.icon.ChunkSweepIcon;
 import kaptainwutax.minemap.ui.map.icon.IconRenderer;
 import kaptainwutax.minemap.ui.map.tool.Tool;
 import kaptainwutax.minemap.util.data.DrawInfo;
@@ -17,35 +17,70 @@ import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 public class Fragment {
 
+    // reused by each thread building images, only the images themselves are kept
+    private static final ThreadLocal<int[]> PIXELS = ThreadLocal.withInitial(() -> new int[0]);
+    private static final ThreadLocal<byte[]> INDICES = ThreadLocal.withInitial(() -> new byte[0]);
+    // the grid is sampled in that many bands of rows, stolen by the idle threads of the pool
+    private static final int BIOME_BANDS = 4;
+    private static final int MIN_BAND_ROWS = 8;
+
     private final int blockX;
     private final int blockZ;
     private final int regionSize;
     private final MapContext context;
-
-    private int layerIdCache;
-    private int[][] biomeCache;
-    private Set<Biome> activeBiomesCache;
-    private BufferedImage imageCache;
-
-    private Map<Feature<?, ?>, List<BPos>> features;
+    private final int layerId;
+
+    // square grid stored row by row like the image, biomeCache[z * size + x]
+    private volatile int[] biomeCache;
+    private volatile int mipLevel;
+    private volatile BiomePalette paletteCache;
+    private volatile BufferedImage imageCache;
+    private volatile int[] imageSource;
+    private volatile int imageStride = 1;
+    // width in pixels the fragment is drawn at, the image is built at the stride matching it
+    private volatile int displaySize;
+    private volatile boolean preview;
+
+    private volatile Map<Feature<?, ?>, List<BPos>> features = Collections.emptyMap();
+    private volatile boolean featuresGenerated;
+    private volatile FeatureIndex featureIndex;
+    // version of the context the features were computed at and the version of each of them
+    private volatile int featuresVersion;
+    private volatile int shownFeaturesVersion;
+    private volatile Map<String, Integer> featureVersions = Collections.emptyMap();
+    private Map<String, List<BPos>> storedFeatures;
+    private int storedVersion;
+    // values of the shared cache this fragment uses, released once it leaves its cache
+    private final Set<List<Object>> sharedKeys = new HashSet<>();
+    private boolean released;
     private BPos hoveredPos;
     private BPos clickedPos;
+    private volatile boolean cancelled;
 
     public Fragment(int blockX, int blockZ, int regionSize, MapContext context) {
+        this(blockX, blockZ, regionSize, context, true);
+    }
+
+    public Fragment(int blockX, int blockZ, int regionSize, MapContext context, boolean generate) {
         this.blockX = blockX;
         this.blockZ = blockZ;
         this.regionSize = regionSize;
         this.context = context;
+        this.layerId = context == null ? 0 : context.getLayerId();
 
-        if (this.context != null) {
-            this.refreshBiomeCache();
-            this.refreshImageCache();
-            this.generateFeatures();
+        if (this.context != null && generate) {
+            this.generate();
         }
     }
 
@@ -57,6 +92,134 @@ public class Fragment {
         this(pos.toBlockPos(), pos.getRegionSize(), context);
     }
 
+    public Fragment(RPos pos, MapContext context, boolean generate) {
+        this(pos.toBlockPos().getX(), pos.toBlockPos().getZ(), pos.getRegionSize(), context, generate);
+    }
+
+    /**
+     * Computes the biomes, the image and the features of this fragment, throws a {@link CancellationException}
+     * as soon as {@link #cancel()} was called so the worker can move on to a visible fragment.
+     */
+    public void generate() {
+        this.generateBiomes();
+        this.generateFeatures();
+    }
+
+    /**
+     * Cheap pass drawn until the selected layer is sampled, it uses a coarser layer of the same stack unless the
+     * fragment is in the disk cache or the selected layer is already coarse enough, see {@link #isPreview()}.
+     *
+     * @param mipLevel see {@link #generateBiomes(int, int)}
+     */
+    public void generatePreview(int mipLevel, int displaySize) {
+        this.displaySize = displaySize;
+
+        if (this.loadStored(mipLevel)) {
+            this.refreshImageCache();
+            return;
+        }
+
+        int previewLayerId = this.context.getPreviewLayerId(this.layerId, Configs.USER_PROFILE.getUserSettings().previewScale >> mipLevel);
+
+        if (previewLayerId < 0) {
+            this.refreshBiomeCache(mipLevel);
+            return;
+        }
+
+        this.publishBiomes(0, this.sampleLayer(previewLayerId, 0), true);
+    }
+
+    public void generateBiomes() {
+        this.generateBiomes(0, 0);
+    }
+
+    /**
+     * First stage of the pipeline, once done the fragment can be drawn without its features. Also builds the image
+     * again once the zoom changed, see {@link #needsImage(int)}.
+     *
+     * @param mipLevel    the selected layer is sampled every 2^mipLevel cells, a finer level replaces a coarser one
+     * @param displaySize the width in pixels the fragment is drawn at, 0 for a full resolution image
+     */
+    public void generateBiomes(int mipLevel, int displaySize) {
+        this.displaySize = displaySize;
+        if (this.biomeCache == null) this.loadStored(mipLevel);
+        boolean refined = this.refreshBiomeCache(mipLevel);
+        this.checkCancelled();
+        this.refreshImageCache();
+        if (refined && this.featuresGenerated) this.store();
+    }
+
+    /**
+     * @return true if the image isn't the one to draw at that width, the paint keeps scaling the current one until
+     * the biome stage built it
+     */
+    public boolean needsImage(int displaySize) {
+        int[] biomes = this.biomeCache;
+        BufferedImage image = this.imageCache;
+        if (biomes == null || image == null) return false;
+        if (this.imageSource != biomes || this.imageStride != getStride(biomes, displaySize)) return true;
+        // an indexed image is recolored by the paint
+        return this.paletteCache != this.getPalette() && !(image.getColorModel() instanceof IndexColorModel);
+    }
+
+    /**
+     * @return the level the selected layer was sampled at, every level halves the resolution
+     */
+    public int getMipLevel() {
+        return this.mipLevel;
+    }
+
+    /**
+     * @return true if the biomes come from a coarser layer than the selected one
+     */
+    public boolean isPreview() {
+        return this.preview;
+    }
+
+    /**
+     * Second stage of the pipeline, only the shown features are computed and they are only published once all
+     * of them are. Once published, only the features invalidated or shown since then are computed again.
+     */
+    public void generateFeatures() {
+        // the stored positions were keyed by the salts at load time, they are stale past an invalidation
+        Map<String, List<BPos>> known = this.storedVersion == this.context.getFeaturesVersion() ? this.storedFeatures : null;
+        boolean computed = this.generateFeatures(known);
+        this.storedFeatures = null;
+        if (computed) this.store();
+    }
+
+    private void store() {
+        FragmentDiskCache diskCache = FragmentDiskCache.getInstance();
+        if (diskCache == null || this.preview) return;
+        Map<String, List<BPos>> features = new HashMap<>();
+        this.features.forEach((feature, positions) -> features.put(feature.getName(), positions));
+        diskCache.store(FragmentDiskCache.getWorldKey(this.context, this.layerId), this, this.biomeCache, features);
+    }
+
+    /**
+     * @return true if the shown features were computed and none of them got invalidated or shown since
+     */
+    public boolean hasFeatures() {
+        return this.featuresGenerated && this.featuresVersion == this.context.getFeaturesVersion()
+                && this.shownFeaturesVersion == this.context.getSettings().getShownFeaturesVersion();
+    }
+
+    public void resume() {
+        this.cancelled = false;
+    }
+
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    public void checkCancelled() {
+        if (this.cancelled) throw new CancellationException("Fragment at " + this.blockX + ", " + this.blockZ + " left the view");
+    }
+
     public int getX() {
         return this.blockX;
     }
@@ -73,12 +236,22 @@ public class Fragment {
         return this.context;
     }
 
-    public void drawBiomes(Graphics graphics, DrawInfo info) {
-        this.refreshBiomeCache();
-        this.refreshImageCache();
+    /**
+     * @return the layer this fragment samples, it doesn't follow the layer selected afterwards
+     */
+    public int getLayerId() {
+        return this.layerId;
+    }
 
-        if (this.imageCache != null && this.context.getSettings().showBiomes) {
-            graphics.drawImage(this.imageCache, info.x, info.y, info.width, info.height, null);
+    public void drawBiomes(Graphics graphics, DrawInfo info) {
+        // a preview gets replaced by the scheduler, sampling the selected layer here would block the paint
+        if (!this.preview) this.refreshBiomeCache(this.mipLevel);
+        // the downsampled image of the zoom is built by the biome stage, this only picks up the last one
+        this.refreshPalette();
+        BufferedImage image = this.imageCache;
+
+        if (image != null && this.context.getSettings().showBiomes) {
+            graphics.drawImage(image, info.x, info.y, info.width, info.height, null);
         }
 
         if (this.context.getSettings().showGrid) {
@@ -92,12 +265,21 @@ public class Fragment {
     public void drawFeatures(Graphics graphics, DrawInfo info) {
         if (!this.context.getSettings().showFeatures) return;
 
-        Map<Feature<?, ?>, List<BPos>> hovered = this.getHoveredFeatures(info.width, info.height);
+        BPos hoveredPos = this.hoveredPos;
         for (Map.Entry<Feature<?, ?>, List<BPos>> entry : this.features.entrySet()) {
             if (!this.context.getSettings().isActive(entry.getKey()) || entry.getValue() == null) continue;
 
+            if (entry.getValue() instanceof ChunkBitmap) {
+                ChunkSweepIcon icon = (ChunkSweepIcon) this.context.getIconManager().getFor(entry.getKey());
+                ((ChunkBitmap) entry.getValue()).draw(graphics, info, icon.getBitmapColor(entry.getKey()));
+                continue;
+            }
+
+            IconRenderer renderer = this.context.getIconManager().getFor(entry.getKey());
+
             for (BPos pos : entry.getValue()) {
-                this.context.getIconManager().render(graphics, info, entry.getKey(), this, pos, hovered.getOrDefault(entry.getKey(), Collections.emptyList()).contains(pos));
+                boolean hovered = hoveredPos != null && renderer.isHovered(this, hoveredPos, pos, info.width, info.height, entry.getKey());
+                renderer.render(graphics, info, entry.getKey(), this, pos, hovered);
             }
         }
     }
@@ -151,11 +333,23 @@ public class Fragment {
     }
 
     public void onHovered(int blockX, int blockZ) {
-        this.hoveredPos = new BPos(blockX, 0, blockZ);
+        this.onHovered(new BPos(blockX, 0, blockZ));
+    }
+
+    public void onHovered(BPos pos) {
+        this.hoveredPos = pos;
     }
 
     public void onClicked(int blockX, int blockZ) {
-        this.clickedPos = new BPos(blockX, 0, blockZ);
+        this.onClicked(new BPos(blockX, 0, blockZ));
+    }
+
+    public void onClicked(BPos pos) {
+        this.clickedPos = pos;
+    }
+
+    public BPos getHoveredPos() {
+        return this.hoveredPos;
     }
 
     public Map<Feature<?, ?>, List<BPos>> getClickedFeatures(int width, int height) {
@@ -166,80 +360,396 @@ public class Fragment {
         return getFeatures(width, height, this.hoveredPos);
     }
 
+    /**
+     * @return the shown features with an icon under that position, only the ones with at least one
+     */
     public Map<Feature<?, ?>, List<BPos>> getFeatures(int width, int height, BPos checkPos) {
-        if (checkPos == null || this.context == null || !this.context.getSettings().showFeatures) {
-            return Collections.emptyMap();
+        Map<Feature<?, ?>, List<BPos>> map = new HashMap<>();
+        this.forEachFeature(width, height, checkPos, (feature, pos) -> map.computeIfAbsent(feature, k -> new ArrayList<>()).add(pos));
+        return map.isEmpty() ? Collections.emptyMap() : map;
+    }
+
+    /**
+     * Same as {@link #getFeatures(int, int, BPos)} without building the map, only the cells of the index around
+     * that position are visited.
+     */
+    public void forEachFeature(int width, int height, BPos checkPos, BiConsumer<Feature<?, ?>, BPos> consumer) {
+        if (checkPos == null || this.context == null || !this.context.getSettings().showFeatures) return;
+        this.getFeatureIndex().forEachHovered(width, height, checkPos, consumer);
+    }
+
+    private FeatureIndex getFeatureIndex() {
+        Map<Feature<?, ?>, List<BPos>> features = this.features;
+        FeatureIndex index = this.featureIndex;
+
+        // rebuilt once per set of features, racing threads build the same one
+        if (index == null || !index.isFor(features)) {
+            this.featureIndex = index = new FeatureIndex(this, features);
         }
 
-        Map<Feature<?, ?>, List<BPos>> map = new HashMap<>();
+        return index;
+    }
 
-        for (Map.Entry<Feature<?, ?>, List<BPos>> entry : this.features.entrySet()) {
-            if (!this.context.getSettings().isActive(entry.getKey()) || entry.getValue() == null) continue;
-            IconRenderer renderer = this.context.getIconManager().getFor(entry.getKey());
-            ArrayList<BPos> newList = new ArrayList<>(entry.getValue());
-            newList.removeIf(pos -> !renderer.isHovered(this, checkPos, pos, width, height, entry.getKey()));
-            map.put(entry.getKey(), newList);
+    /**
+     * @return true if the stored biomes are at least as fine as that mip level, the stored features are kept either way
+     */
+    private boolean loadStored(int mipLevel) {
+        FragmentDiskCache diskCache = FragmentDiskCache.getInstance();
+        FragmentDiskCache.Entry stored = diskCache == null ? null : diskCache.load(FragmentDiskCache.getWorldKey(this.context, this.layerId), this);
+        if (stored == null) return false;
+        this.storedFeatures = stored.features;
+        this.storedVersion = this.context.getFeaturesVersion();
+
+        int storedLevel = this.getLevel(stored.biomes);
+        if (storedLevel > mipLevel) return false;
+
+        this.mipLevel = storedLevel;
+        this.biomeCache = stored.biomes;
+        return true;
+    }
+
+    /**
+     * @return true if the selected layer had to be sampled again or was taken from another map
+     */
+    private boolean refreshBiomeCache(int mipLevel) {
+        if (this.biomeCache != null && !this.preview && this.mipLevel <= mipLevel) return false;
+        SharedFragmentCache shared = SharedFragmentCache.getInstance();
+        List<Object> key = SharedFragmentCache.getBiomesKey(this.context, this.layerId, this);
+        int[] biomes = this.track(key, shared.<int[]>acquire(key, mipLevel));
+
+        if (biomes == null) {
+            biomes = this.sampleLayer(this.layerId, mipLevel);
+            // another map may have shared a finer grid meanwhile, the finest one is kept
+            biomes = this.track(key, shared.share(key, biomes, mipLevel, 16L + 4L * biomes.length));
         }
 
-        return map;
+        this.publishBiomes(this.getLevel(biomes), biomes, false);
+        return true;
     }
 
-    private void refreshBiomeCache() {
-        if (this.biomeCache != null && this.layerIdCache == this.context.getLayerId()) return;
+    /**
+     * @return the mip level a grid of the selected layer was sampled at, from its size
+     */
+    private int getLevel(int[] biomes) {
+        int fullSize = Math.max(this.regionSize / this.context.getBiomeLayer(this.layerId).getScale(), 1);
+        return Integer.numberOfTrailingZeros(Math.max(fullSize / Math.max(getGridSize(biomes), 1), 1));
+    }
 
-        this.layerIdCache = this.context.getLayerId();
-        BiomeLayer layer = this.context.getBiomeLayer();
-        int effectiveRegion = Math.max(this.regionSize / layer.getScale(), 1);
-        RPos region = new BPos(this.blockX, 0, this.blockZ).toRegionPos(layer.getScale());
+    /**
+     * Counts that shared value as used by this fragment, once per key, until {@link #release()}.
+     */
+    private <T> T track(List<Object> key, T value) {
+        if (value == null) return null;
 
-        if (this.biomeCache == null || this.biomeCache.length != effectiveRegion) {
-            this.biomeCache = new int[effectiveRegion][effectiveRegion];
+        synchronized (this.sharedKeys) {
+            if (this.released || !this.sharedKeys.add(key)) SharedFragmentCache.getInstance().release(key);
         }
 
-        for (int x = 0; x < effectiveRegion; x++) {
-            for (int z = 0; z < effectiveRegion; z++) {
-                this.biomeCache[x][z] = layer.get(region.getX() + x, 0, region.getZ() + z);
+        return value;
+    }
+
+    /**
+     * Called once this fragment left its cache, the values it shared with the other maps can be evicted.
+     */
+    public void release() {
+        synchronized (this.sharedKeys) {
+            this.released = true;
+            this.sharedKeys.forEach(SharedFragmentCache.getInstance()::release);
+            this.sharedKeys.clear();
+        }
+    }
+
+    private int[] sampleLayer(int layerId, int mipLevel) {
+        int stride = 1 << mipLevel;
+        int scale = this.context.getBiomeLayer(layerId).getScale();
+        int effectiveRegion = Math.max(this.regionSize / scale / stride, 1);
+        RPos region = new BPos(this.blockX, 0, this.blockZ).toRegionPos(scale);
+        int[] biomes = new int[effectiveRegion * effectiveRegion];
+
+        int bands = effectiveRegion >= BIOME_BANDS * MIN_BAND_ROWS ? BIOME_BANDS : 1;
+        List<Integer> indices = new ArrayList<>(bands);
+
+        for (int band = 0; band < bands; band++) {
+            indices.add(band);
+        }
+
+        // each band writes its own rows, the layer is taken on the thread running it since the layers are not shared
+        forkAll(indices, band -> {
+            BiomeLayer layer = this.context.getBiomeLayer(layerId);
+            int start = band * effectiveRegion / bands, end = (band + 1) * effectiveRegion / bands;
+
+            for (int z = start, i = start * effectiveRegion; z < end; z++) {
+                this.checkCancelled();
+                for (int x = 0; x < effectiveRegion; x++, i++) {
+                    biomes[i] = layer.get(region.getX() + x * stride, 0, region.getZ() + z * stride);
+                }
             }
+
+            return null;
+        });
+
+        return biomes;
+    }
+
+    /**
+     * Runs the task on every input as fork-join subtasks when called from a pool thread so the idle threads steal
+     * them, one after the other otherwise. The first exception thrown, a cancellation included, is rethrown.
+     */
+    static <T, R> List<R> forkAll(List<T> inputs, Function<T, R> task) {
+        List<R> results = new ArrayList<>(inputs.size());
+
+        if (inputs.size() <= 1 || !ForkJoinTask.inForkJoinPool()) {
+            for (T input : inputs) {
+                results.add(task.apply(input));
+            }
+
+            return results;
         }
 
-        this.refreshImageCache();
+        List<ForkJoinTask<R>> tasks = new ArrayList<>(inputs.size());
+
+        for (T input : inputs) {
+            tasks.add(ForkJoinTask.adapt(() -> task.apply(input)));
+        }
+
+        ForkJoinTask.invokeAll(tasks);
+
+        for (ForkJoinTask<R> forked : tasks) {
+            results.add(forked.join());
+        }
+
+        return results;
+    }
+
+    private static int getGridSize(int[] biomes) {
+        return (int) Math.round(Math.sqrt(biomes.length));
+    }
+
+    private static int[] getPixels(int length) {
+        int[] pixels = PIXELS.get();
+        if (pixels.length < length) PIXELS.set(pixels = new int[length]);
+        return pixels;
+    }
+
+    private static byte[] getIndices(int length) {
+        byte[] indices = INDICES.get();
+        if (indices.length < length) INDICES.set(indices = new byte[length]);
+        return indices;
+    }
+
+    private static boolean isIndexable(int[] biomes) {
+        for (int biome : biomes) {
+            if (biome < 0 || biome >= BiomePalette.INDEXED_SIZE) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Swaps the biomes and the image at once so the paint never sees a half drawn image.
+     */
+    private void publishBiomes(int mipLevel, int[] biomes, boolean preview) {
+        BiomePalette palette = this.getPalette();
+        int stride = getStride(biomes, this.displaySize);
+        BufferedImage image = this.createImage(biomes, palette, stride);
+        this.mipLevel = mipLevel;
+        this.biomeCache = biomes;
+        this.paletteCache = palette;
+        this.imageStride = stride;
+        this.imageSource = biomes;
+        this.imageCache = image;
+        this.preview = preview;
+    }
+
+    /**
+     * @param displaySize the width in pixels the fragment is drawn at, 0 or less for a full resolution image
+     * @return how many biome cells the image keeps one pixel of, so zoomed out a downsampled image gets drawn
+     * instead of scaling the whole one down on every frame
+     */
+    private static int getStride(int[] biomes, int displaySize) {
+        if (displaySize <= 0) return 1;
+        int size = getGridSize(biomes), stride = 1;
+
+        while (size / (stride * 2) >= displaySize) {
+            stride *= 2;
+        }
+
+        return stride;
+    }
+
+    /**
+     * Swaps the palette of an indexed image, the pixels are biome ids so recoloring only takes the new palette.
+     */
+    private void refreshPalette() {
+        BiomePalette palette = this.getPalette();
+        BufferedImage image = this.imageCache;
+        if (image == null || this.paletteCache == palette || !(image.getColorModel() instanceof IndexColorModel)) return;
+        this.imageCache = new BufferedImage(palette.getColorModel(), image.getRaster(), false, null);
+        this.paletteCache = palette;
     }
 
+    /**
+     * Builds the image again at the stride of the last display size if the biomes, the stride or the palette changed.
+     */
     private void refreshImageCache() {
-        if (this.imageCache != null && this.context.getSettings().getActiveBiomes().equals(this.activeBiomesCache)) return;
+        int[] biomes = this.biomeCache;
+        int stride = getStride(biomes, this.displaySize);
+        BufferedImage image = this.imageCache;
+
+        if (image != null && this.imageSource == biomes && this.imageStride == stride) {
+            this.refreshPalette();
+            if (this.paletteCache == this.getPalette()) return;
+        }
+
+        BiomePalette palette = this.getPalette();
+        this.imageCache = this.createImage(biomes, palette, stride);
+        this.imageSource = biomes;
+        this.imageStride = stride;
+        this.paletteCache = palette;
+    }
+
+    private BiomePalette getPalette() {
+        return this.context.getSettings().getBiomePalette(Configs.USER_PROFILE.getUserSettings().style);
+    }
+
+    private BufferedImage createImage(int[] biomes, BiomePalette palette, int stride) {
+        int biomeSize = getGridSize(biomes);
+        int scaledSize = Math.max(biomeSize / stride, 1);
 
-        int scaledSize = this.biomeCache.length;
-        this.activeBiomesCache = this.context.getSettings().getActiveBiomes();
-        this.imageCache = new BufferedImage(scaledSize, scaledSize, BufferedImage.TYPE_INT_RGB);
+        if (isIndexable(biomes)) {
+            byte[] indices = getIndices(scaledSize * scaledSize);
 
-        for (int x = 0; x < scaledSize; x++) {
-            for (int z = 0; z < scaledSize; z++) {
-                Biome biome = Biome.REGISTRY.get(this.biomeCache[x][z]);
-                if (biome == null) continue;
-                Color color = Configs.BIOME_COLORS.get(Configs.USER_PROFILE.getUserSettings().style, biome);
+            for (int z = 0, i = 0; z < scaledSize; z++) {
+                int row = z * stride * biomeSize;
 
-                if (!this.activeBiomesCache.contains(biome)) {
-                    color = makeInactive(color);
+                for (int x = 0; x < scaledSize; x++, i++) {
+                    indices[i] = (byte) biomes[row + x * stride];
                 }
+            }
+
+            WritableRaster raster = palette.getColorModel().createCompatibleWritableRaster(scaledSize, scaledSize);
+            raster.setDataElements(0, 0, scaledSize, scaledSize, indices);
+            return new BufferedImage(palette.getColorModel(), raster, false, null);
+        }
+
+        // some of the early layers output values that aren't biome ids
+        int[] pixels = getPixels(scaledSize * scaledSize);
+
+        for (int z = 0, i = 0; z < scaledSize; z++) {
+            int row = z * stride * biomeSize;
 
-                this.imageCache.setRGB(x, z, color.getRGB());
+            for (int x = 0; x < scaledSize; x++, i++) {
+                pixels[i] = palette.getColor(biomes[row + x * stride]);
             }
         }
-    }
 
-    private Color makeInactive(Color c) {
-        int r = c.getRed(), g = c.getGreen(), b = c.getBlue(), sum = r + g + b;
-        return new Color((r + sum) / 30, (g + sum) / 30, (b + sum) / 30, c.getAlpha());
+        // one bulk copy into the DataBufferInt, setRGB would convert through the color model on every pixel
+        BufferedImage image = new BufferedImage(scaledSize, scaledSize, BufferedImage.TYPE_INT_RGB);
+        image.getRaster().setDataElements(0, 0, scaledSize, scaledSize, pixels);
+        return image;
     }
 
-    private void generateFeatures() {
-        this.features = new LinkedHashMap<>();
+    /**
+     * @param known positions already computed for this fragment keyed by feature name, can be null
+     * @return true if any feature had to be computed
+     */
+    private boolean generateFeatures(Map<String, List<BPos>> known) {
+        // read first so an invalidation during the loop leaves the fragment stale
+        int version = this.context.getFeaturesVersion();
+        int shownVersion = this.context.getSettings().getShownFeaturesVersion();
+        Map<Feature<?, ?>, List<BPos>> previous = this.features;
+        Map<String, Integer> previousVersions = this.featureVersions;
+        Map<Feature<?, ?>, List<BPos>> features = new LinkedHashMap<>();
+        Map<String, Integer> versions = new HashMap<>();
         IconManager iconManager = this.context.getIconManager();
+        List<Feature<?, ?>> missing = new ArrayList<>();
+        List<List<Object>> missingKeys = new ArrayList<>();
+        boolean computed = false;
+
         for (Feature<?, ?> feature : this.context.getSettings().getAllFeatures(iconManager.getZValueSorter())) {
-            List<BPos> positions = iconManager.getPositions(feature, this);
-            positions.removeIf(pos -> !this.isPosInFragment(pos));
-            this.features.put(feature, positions);
+            this.checkCancelled();
+            int featureVersion = this.context.getFeatureVersion(feature);
+            List<BPos> positions = null;
+
+            if (this.featuresGenerated && previousVersions.getOrDefault(feature.getName(), -1) == featureVersion) {
+                positions = previous.get(feature);
+            } else if (known != null) {
+                positions = known.get(feature.getName());
+                // the disk cache keeps every feature as a list of positions
+                if (positions != null && ChunkSweep.isBitmap(iconManager, feature)) positions = ChunkBitmap.of(this, positions);
+            }
+
+            if (positions == null) {
+                // hidden features cost nothing, they get computed once shown
+                if (!this.context.getSettings().isActive(feature)) continue;
+                List<Object> key = SharedFragmentCache.getFeatureKey(this.context, feature, this);
+                positions = this.track(key, SharedFragmentCache.getInstance().<List<BPos>>acquire(key, 0));
+
+                if (positions == null) {
+                    missing.add(feature);
+                    missingKeys.add(key);
+                }
+            }
+
+            // the missing ones keep their place in the drawing order until computed
+            features.put(feature, positions);
+            versions.put(feature.getName(), featureVersion);
+        }
+
+        // the chunk-granular features share one pass over the chunks, the others are computed as subtasks
+        List<Feature<?, ?>> swept = new ArrayList<>(), others = new ArrayList<>();
+        missing.forEach(feature -> (ChunkSweep.isSwept(iconManager, feature) ? swept : others).add(feature));
+        Map<Feature<?, ?>, List<BPos>> computedPositions = new HashMap<>();
+        if (!swept.isEmpty()) computedPositions.putAll(new ChunkSweep(this, swept, iconManager).getPositions());
+        List<List<BPos>> othersPositions = forkAll(others, feature -> iconManager.getPositions(feature, this));
+
+        for (int i = 0; i < others.size(); i++) {
+            computedPositions.put(others.get(i), othersPositions.get(i));
+        }
+
+        // then put back in order
+        for (int i = 0; i < missing.size(); i++) {
+            List<BPos> positions = computedPositions.get(missing.get(i));
+            if (!(positions instanceof ChunkBitmap)) positions.removeIf(pos -> !this.isPosInFragment(pos));
+            positions = this.track(missingKeys.get(i), SharedFragmentCache.getInstance().share(missingKeys.get(i), positions, 0, getApproximateSize(positions)));
+            features.put(missing.get(i), positions);
+            computed = true;
         }
+
+        this.features = features;
+        this.featureVersions = versions;
+        this.featuresVersion = version;
+        this.shownFeaturesVersion = shownVersion;
+        this.featuresGenerated = true;
+        return computed;
+    }
+
+    /**
+     * @return a rough estimate in bytes of the heap held by this fragment, used to enforce the cache budget
+     */
+    public long getApproximateSize() {
+        long size = 128L;
+        int[] biomes = this.biomeCache;
+        if (biomes != null) size += 16L + 4L * biomes.length;
+        BufferedImage image = this.imageCache;
+        if (image != null) size += (image.getColorModel() instanceof IndexColorModel ? 1L : 4L) * image.getWidth() * image.getHeight();
+        Map<Feature<?, ?>, List<BPos>> features = this.features;
+
+        if (features != null) {
+            for (List<BPos> positions : features.values()) {
+                size += getApproximateSize(positions);
+            }
+        }
+
+        FeatureIndex index = this.featureIndex;
+        if (index != null) size += 64L + 8L * index.size();
+
+        return size;
+    }
+
+    private static long getApproximateSize(List<BPos> positions) {
+        if (positions instanceof ChunkBitmap) return ((ChunkBitmap) positions).getApproximateSize();
+        return 48L + (positions == null ? 0 : 32L * positions.size());
     }
 
     public boolean isPosInFragment(BPos pos) {
@@ -262,9 +772,9 @@ public class Fragment {
                 ", blockZ=" + blockZ +
                 ", regionSize=" + regionSize +
                 ", context=" + context +
-                ", layerIdCache=" + layerIdCache +
+                ", layerId=" + layerId +
                 ", biomeCache=" + Arrays.toString(biomeCache) +
-                ", activeBiomesCache=" + activeBiomesCache +
+                ", paletteCache=" + paletteCache +
                 ", imageCache=" + imageCache +
                 ", features=" + features +
                 ", hoveredPos=" + hoveredPos +
@@ -0,0 +1,253 @@
+package kaptainwutax.minemap.ui.map.fragment;
+
+import kaptainwutax.mcutils.util.pos.RPos;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Keeps the generated fragments of a map under a memory budget, once the budget is exceeded the fragments
+ * that were not drawn for the longest time and are the furthest away from the view are dropped first.
+ * Fragments of every layer share the budget, so the layers viewed last stay around. A dropped fragment is
+ * released so the values it shared with the other maps can be evicted, see {@link SharedFragmentCache}.
+ * The budget is for the whole process, each open map gets an equal part of it.
+ */
+public class FragmentCache {
+
+    // evict down to that ratio of the budget so we don't sort the entries on every insertion
+    private static final double EVICTION_RATIO = 0.9D;
+    // caches not closed yet, they split the budget
+    private static final AtomicInteger OPEN = new AtomicInteger();
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final long totalBudget;
+    private volatile long generation;
+    private boolean closed;
+
+    /**
+     * @param totalBudget the budget of all the caches open at once
+     */
+    public FragmentCache(long totalBudget) {
+        this.totalBudget = totalBudget;
+        OPEN.incrementAndGet();
+    }
+
+    /**
+     * @return the part of the budget of this cache, it grows back as the other maps get closed
+     */
+    public long getBudget() {
+        return this.totalBudget / Math.max(OPEN.get(), 1);
+    }
+
+    public long getUsedBytes() {
+        return this.usedBytes.get();
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Marks the start of a new frame, the age of an entry is the number of frames since it was last drawn.
+     */
+    public void tick() {
+        this.generation++;
+    }
+
+    public Fragment get(RPos region, int layerId) {
+        Entry entry = this.entries.get(new Key(region, layerId));
+        if (entry == null) return null;
+        entry.lastAccess = this.generation;
+        return entry.fragment;
+    }
+
+    /**
+     * Returns the fragment at that region and counts it as a hit, or puts the placeholder there and counts a miss.
+     */
+    public Fragment getOrPlaceholder(RPos region, int layerId, Fragment placeholder) {
+        Key key = new Key(region, layerId);
+        Entry entry = this.entries.get(key);
+
+        if (entry == null) {
+            entry = this.entries.putIfAbsent(key, new Entry(region, placeholder, this.generation, true));
+
+            if (entry == null) {
+                this.misses.increment();
+                return null;
+            }
+        }
+
+        entry.lastAccess = this.generation;
+        if (entry.fragment != placeholder) this.hits.increment();
+        return entry.fragment;
+    }
+
+    public void put(RPos region, Fragment fragment) {
+        Entry entry = new Entry(region, fragment, this.generation, false);
+        Entry old = this.entries.put(new Key(region, fragment.getLayerId()), entry);
+        this.usedBytes.addAndGet(entry.bytes - (old == null ? 0 : old.bytes));
+        if (old != null && old.fragment != fragment) old.fragment.release();
+    }
+
+    /**
+     * Puts that fragment only if the region still holds the expected one, which can be the fragment itself to
+     * account for its new size.
+     *
+     * @return false if the region was evicted or replaced meanwhile, the fragment is not cached then
+     */
+    public boolean replace(RPos region, Fragment expected, Fragment fragment) {
+        Key key = new Key(region, fragment.getLayerId());
+        Entry old = this.entries.get(key);
+        if (old == null || old.fragment != expected) return false;
+        Entry entry = new Entry(region, fragment, Math.max(old.lastAccess, this.generation), false);
+        if (!this.entries.replace(key, old, entry)) return false;
+        this.usedBytes.addAndGet(entry.bytes - old.bytes);
+        if (old.fragment != fragment) old.fragment.release();
+        return true;
+    }
+
+    public boolean remove(RPos region, int layerId, Fragment fragment) {
+        Key key = new Key(region, layerId);
+        Entry entry = this.entries.get(key);
+        if (entry == null || entry.fragment != fragment || !this.entries.remove(key, entry)) return false;
+        this.usedBytes.addAndGet(-entry.bytes);
+        entry.fragment.release();
+        return true;
+    }
+
+    public void forEach(BiConsumer<RPos, Fragment> consumer) {
+        this.entries.values().forEach(entry -> consumer.accept(entry.region, entry.fragment));
+    }
+
+    public void clear() {
+        this.entries.values().forEach(entry -> entry.fragment.release());
+        this.entries.clear();
+        this.usedBytes.set(0);
+    }
+
+    /**
+     * Clears the cache and gives its part of the budget back to the other maps.
+     */
+    public synchronized void close() {
+        this.clear();
+        if (this.closed) return;
+        this.closed = true;
+        OPEN.decrementAndGet();
+    }
+
+    public boolean isOverBudget() {
+        return this.usedBytes.get() > this.getBudget();
+    }
+
+    /**
+     * Drops fragments until the cache is back under its budget, the score of an entry is its age in frames
+     * plus its distance to the view so both stale and far away fragments go first.
+     *
+     * @param distance the distance in regions of a region to the center of the view
+     */
+    public synchronized void evict(ToDoubleFunction<RPos> distance) {
+        if (!this.isOverBudget()) return;
+
+        long now = this.generation;
+        List<Entry> candidates = new ArrayList<>(this.entries.values());
+        Map<Entry, Double> scores = new HashMap<>(candidates.size());
+
+        for (Entry candidate : candidates) {
+            scores.put(candidate, (now - candidate.lastAccess) + distance.applyAsDouble(candidate.region));
+        }
+
+        candidates.sort(Comparator.comparingDouble(e -> -scores.get(e)));
+        long target = (long) (this.getBudget() * EVICTION_RATIO);
+
+        for (Entry candidate : candidates) {
+            if (this.usedBytes.get() <= target) break;
+            // a placeholder has its preview queued, dropping it would schedule the region twice
+            if (candidate.placeholder || candidate.bytes == 0) continue;
+            if (this.remove(candidate.region, candidate.fragment.getLayerId(), candidate.fragment)) this.evictions.increment();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FragmentCache{" +
+                "entries=" + this.size() +
+                ", usedBytes=" + this.getUsedBytes() +
+                ", budget=" + this.getBudget() +
+                ", hits=" + this.getHits() +
+                ", misses=" + this.getMisses() +
+                ", evictions=" + this.getEvictions() +
+                '}';
+    }
+
+    /**
+     * Fragments of every size and layer share the cache, so both are part of the key.
+     */
+    private static class Key {
+        private final int x;
+        private final int z;
+        private final int size;
+        private final int layerId;
+
+        private Key(RPos region, int layerId) {
+            this.x = region.getX();
+            this.z = region.getZ();
+            this.size = region.getRegionSize();
+            this.layerId = layerId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return this.x == key.x && this.z == key.z && this.size == key.size && this.layerId == key.layerId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * this.x + this.z) + this.size) + this.layerId;
+        }
+    }
+
+    private static class Entry {
+        private final RPos region;
+        private final Fragment fragment;
+        private final long bytes;
+        private final boolean placeholder;
+        private volatile long lastAccess;
+
+        private Entry(RPos region, Fragment fragment, long lastAccess, boolean placeholder) {
+            this.region = region;
+            this.fragment = fragment;
+            this.bytes = placeholder ? 0 : fragment.getApproximateSize();
+            this.placeholder = placeholder;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+}
@@ -0,0 +1,338 @@
+package kaptainwutax.minemap.ui.map.fragment;
+
+import kaptainwutax.mcutils.util.pos.BPos;
+import kaptainwutax.minemap.MineMap;
+import kaptainwutax.minemap.init.Configs;
+import kaptainwutax.minemap.init.Logger;
+import kaptainwutax.minemap.ui.map.MapContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Stores the biome grid and the feature positions of generated fragments under {@link MineMap#CACHE_DIR}.
+ * Every world key (seed, version, dimension, layer, salts and structure seed mode) gets its own folder with
+ * one small binary file per fragment, files are read whole into a reused buffer and the least recently used ones
+ * are deleted once the folder grows past the configured size. The recency of the files is kept in memory and only
+ * written back as modification times on exit, so a hit never writes to the disk.
+ */
+public class FragmentDiskCache {
+
+    private static final int MAGIC = 0x4D4D4643; // MMFC
+    private static final int FORMAT_VERSION = 2;
+    private static final byte BYTE_BIOMES = 1;
+    private static final byte INT_BIOMES = 2;
+    private static final String EXTENSION = ".bin";
+    // evict down to that ratio of the budget so we don't walk the folder on every write
+    private static final double EVICTION_RATIO = 0.9D;
+    private static volatile FragmentDiskCache INSTANCE;
+    // reused by each thread writing fragments
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(0));
+    // reused by each thread reading fragments
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(0));
+
+    private final Path root;
+    private final long budget;
+    private final AtomicLong usedBytes = new AtomicLong();
+    // size of every file of the cache, least recently used first, guarded by itself
+    private final LinkedHashMap<Path, Long> files = new LinkedHashMap<>(16, 0.75F, true);
+    // files read or written since the start, their modification time is updated on exit
+    private final Set<Path> touched = new HashSet<>();
+
+    public FragmentDiskCache(Path root, long budget) {
+        this.root = root;
+        this.budget = budget;
+        List<Map.Entry<Path, BasicFileAttributes>> found;
+
+        try (Stream<Path> paths = Files.walk(this.root)) {
+            found = paths.filter(path -> path.toString().endsWith(EXTENSION)).map(path -> {
+                try {
+                    return new AbstractMap.SimpleEntry<>(path, Files.readAttributes(path, BasicFileAttributes.class));
+                } catch (IOException e) {
+                    return null;
+                }
+            }).filter(Objects::nonNull).collect(Collectors.toList());
+        } catch (IOException e) {
+            Logger.LOGGER.warning(String.format("Failed to read the fragment cache folder, error: %s", e));
+            return;
+        }
+
+        // the only walk of the folder, the modification times give the order of the previous sessions
+        found.sort(Comparator.comparing(entry -> entry.getValue().lastModifiedTime()));
+
+        for (Map.Entry<Path, BasicFileAttributes> entry : found) {
+            this.files.put(entry.getKey(), entry.getValue().size());
+            this.usedBytes.addAndGet(entry.getValue().size());
+        }
+    }
+
+    /**
+     * @return the cache shared by every map, or null if it was disabled in the user settings
+     */
+    public static FragmentDiskCache getInstance() {
+        long budget = Configs.USER_PROFILE.getUserSettings().getDiskCacheBudget();
+        if (budget <= 0) return null;
+        FragmentDiskCache instance = INSTANCE;
+        // every worker asks for it, only the first call scans the folder under the lock
+        if (instance != null) return instance;
+
+        synchronized (FragmentDiskCache.class) {
+            if (INSTANCE == null) {
+                try {
+                    Files.createDirectories(Paths.get(MineMap.CACHE_DIR));
+                    instance = new FragmentDiskCache(Paths.get(MineMap.CACHE_DIR), budget);
+                    Runtime.getRuntime().addShutdownHook(new Thread(instance::saveAccessTimes, "Fragment cache"));
+                    INSTANCE = instance;
+                } catch (IOException e) {
+                    Logger.LOGGER.severe(String.format("Failed to create the fragment cache folder, error: %s", e));
+                    return null;
+                }
+            }
+
+            return INSTANCE;
+        }
+    }
+
+    public static String getWorldKey(MapContext context, int layerId) {
+        Map<String, Integer> salts = Configs.SALTS.getSalts(context.version);
+        return context.worldSeed + ":" + context.version + ":" + context.dimension.getName() + ":" + layerId
+                // the whole salt map so two configurations never share a folder, the key is hashed as a whole anyway
+                + ":" + (salts == null ? "{}" : new TreeMap<>(salts).toString())
+                + ":" + Configs.USER_PROFILE.getUserSettings().structureMode;
+    }
+
+    private static String hash(String key) {
+        // 64 bits FNV-1a, a 32 bits hash would collide too easily across worlds
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return Long.toHexString(hash);
+    }
+
+    private Path getFile(String worldKey, Fragment fragment) {
+        return this.root.resolve(hash(worldKey)).resolve(fragment.getX() + "_" + fragment.getZ() + "_" + fragment.getSize() + EXTENSION);
+    }
+
+    /**
+     * @return the stored data of that fragment, or null if it was never stored or belongs to another world key
+     */
+    public Entry load(String worldKey, Fragment fragment) {
+        Path file = this.getFile(worldKey, fragment);
+
+        synchronized (this.files) {
+            // also moves it last in the order of use
+            if (this.files.get(file) == null) return null;
+            this.touched.add(file);
+        }
+
+        // read rather than mapped, a live mapping keeps the file from being replaced or deleted on some platforms
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int size = (int) channel.size();
+            ByteBuffer buffer = READ_BUFFER.get();
+
+            if (buffer.capacity() < size) {
+                READ_BUFFER.set(buffer = ByteBuffer.allocate(size));
+            }
+
+            buffer.clear().limit(size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) return null;
+            }
+
+            buffer.flip();
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) return null;
+            if (!worldKey.equals(readString(buffer))) return null;
+            if (buffer.getInt() != fragment.getX() || buffer.getInt() != fragment.getZ() || buffer.getInt() != fragment.getSize()) return null;
+
+            byte type = buffer.get();
+            int[] biomes = new int[buffer.getInt()];
+
+            if (type == BYTE_BIOMES) {
+                for (int i = 0; i < biomes.length; i++) {
+                    biomes[i] = buffer.get() & 0xFF;
+                }
+            } else {
+                buffer.asIntBuffer().get(biomes);
+                buffer.position(buffer.position() + 4 * biomes.length);
+            }
+
+            int featureCount = buffer.getInt();
+            Map<String, List<BPos>> features = new HashMap<>(featureCount);
+
+            for (int i = 0; i < featureCount; i++) {
+                String name = readString(buffer);
+                int count = buffer.getInt();
+                List<BPos> positions = new ArrayList<>(count);
+
+                for (int j = 0; j < count; j++) {
+                    positions.add(new BPos(buffer.getInt(), 0, buffer.getInt()));
+                }
+
+                features.put(name, positions);
+            }
+
+            return new Entry(biomes, features);
+        } catch (IOException | RuntimeException e) {
+            Logger.LOGGER.warning(String.format("Failed to read cached fragment %s, error: %s", file, e));
+            return null;
+        }
+    }
+
+    public void store(String worldKey, Fragment fragment, int[] biomes, Map<String, List<BPos>> features) {
+        boolean fitsInBytes = true;
+
+        for (int biome : biomes) {
+            if (biome >= 0 && biome < 256) continue;
+            fitsInBytes = false;
+            break;
+        }
+
+        byte[] key = worldKey.getBytes(StandardCharsets.UTF_8);
+        int size = 4 + 4 + 2 + key.length + 4 * 3 + 1 + 4 + biomes.length * (fitsInBytes ? 1 : 4) + 4;
+
+        for (Map.Entry<String, List<BPos>> entry : features.entrySet()) {
+            size += 2 + entry.getKey().getBytes(StandardCharsets.UTF_8).length + 4 + 8 * entry.getValue().size();
+        }
+
+        ByteBuffer buffer = BUFFER.get();
+
+        if (buffer.capacity() < size) {
+            BUFFER.set(buffer = ByteBuffer.allocate(size));
+        }
+
+        buffer.clear();
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION);
+        writeString(buffer, worldKey);
+        buffer.putInt(fragment.getX()).putInt(fragment.getZ()).putInt(fragment.getSize());
+        buffer.put(fitsInBytes ? BYTE_BIOMES : INT_BIOMES).putInt(biomes.length);
+
+        for (int biome : biomes) {
+            if (fitsInBytes) buffer.put((byte) biome);
+            else buffer.putInt(biome);
+        }
+
+        buffer.putInt(features.size());
+
+        for (Map.Entry<String, List<BPos>> entry : features.entrySet()) {
+            writeString(buffer, entry.getKey());
+            buffer.putInt(entry.getValue().size());
+
+            for (BPos pos : entry.getValue()) {
+                buffer.putInt(pos.getX()).putInt(pos.getZ());
+            }
+        }
+
+        buffer.flip();
+        Path file = this.getFile(worldKey, fragment);
+
+        try {
+            Files.createDirectories(file.getParent());
+            // write next to the target then move so a crash never leaves a truncated file behind
+            Path temp = Files.createTempFile(file.getParent(), "fragment", ".tmp");
+
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            synchronized (this.files) {
+                Long previous = this.files.put(file, (long) size);
+                this.touched.add(file);
+                this.usedBytes.addAndGet(size - (previous == null ? 0 : previous));
+            }
+        } catch (IOException e) {
+            Logger.LOGGER.warning(String.format("Failed to write cached fragment %s, error: %s", file, e));
+        }
+
+        if (this.usedBytes.get() > this.budget) this.evict();
+    }
+
+    /**
+     * Deletes the least recently read or written fragments until the folder is back under its budget.
+     */
+    private synchronized void evict() {
+        if (this.usedBytes.get() <= this.budget) return;
+        long target = (long) (this.budget * EVICTION_RATIO);
+
+        while (this.usedBytes.get() > target) {
+            Map.Entry<Path, Long> eldest;
+
+            synchronized (this.files) {
+                Iterator<Map.Entry<Path, Long>> iterator = this.files.entrySet().iterator();
+                if (!iterator.hasNext()) return;
+                eldest = iterator.next();
+                iterator.remove();
+                this.touched.remove(eldest.getKey());
+                this.usedBytes.addAndGet(-eldest.getValue());
+            }
+
+            try {
+                Files.deleteIfExists(eldest.getKey());
+            } catch (IOException e) {
+                Logger.LOGGER.warning(String.format("Failed to delete cached fragment %s, error: %s", eldest.getKey(), e));
+            }
+        }
+    }
+
+    /**
+     * Writes the order of use of the files touched this session as their modification times, the next session
+     * sorts them by it.
+     */
+    public void saveAccessTimes() {
+        List<Path> order = new ArrayList<>();
+
+        synchronized (this.files) {
+            for (Path file : this.files.keySet()) {
+                if (this.touched.contains(file)) order.add(file);
+            }
+
+            this.touched.clear();
+        }
+
+        // one millisecond apart so the order survives file systems with coarse times as much as possible
+        long time = System.currentTimeMillis() - order.size();
+
+        for (Path file : order) {
+            try {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(time++));
+            } catch (IOException e) {
+                // deleted by hand meanwhile
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(ByteBuffer buffer, String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    public static class Entry {
+        public final int[] biomes;
+        public final Map<String, List<BPos>> features;
+
+        public Entry(int[] biomes, Map<String, List<BPos>> features) {
+            this.biomes = biomes;
+            this.features = features;
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+package kaptainwutax.minemap.ui.map.fragment;
+
+import kaptainwutax.minemap.ui.map.MapPanel;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the jobs of every fragment scheduler of the process on one work-stealing pool of at most one thread per
+ * core. The scheduler of the selected tab is served first, the background tabs share {@link #BACKGROUND_THREADS}
+ * threads so they keep loading without slowing down the one on screen.
+ */
+public final class FragmentExecutor {
+
+    public static final int THREADS = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+    // threads the background tabs can take at once, 0 pauses them until they get selected
+    public static final int BACKGROUND_THREADS = 1;
+    private static final FragmentExecutor INSTANCE = new FragmentExecutor();
+
+    private final ForkJoinPool pool = new ForkJoinPool(THREADS);
+    private final List<FragmentScheduler> schedulers = new CopyOnWriteArrayList<>();
+    // tasks polling the schedulers in the pool, there is never more than one per thread
+    private final AtomicInteger draining = new AtomicInteger();
+    private final AtomicInteger background = new AtomicInteger();
+    private volatile MapPanel selected;
+
+    private FragmentExecutor() {
+    }
+
+    public static FragmentExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    public ForkJoinPool getPool() {
+        return this.pool;
+    }
+
+    public void register(FragmentScheduler scheduler) {
+        this.schedulers.add(scheduler);
+    }
+
+    public void unregister(FragmentScheduler scheduler) {
+        this.schedulers.remove(scheduler);
+    }
+
+    /**
+     * @param panel the map on screen, null if there is none in which case no tab is favored
+     */
+    public void setSelected(MapPanel panel) {
+        this.selected = panel;
+
+        // the jobs of that tab may have been skipped while it was in the background
+        for (int i = 0; i < THREADS; i++) {
+            this.signal();
+        }
+    }
+
+    public boolean isSelected(FragmentScheduler scheduler) {
+        MapPanel selected = this.selected;
+        return selected == null || scheduler.listener == selected;
+    }
+
+    /**
+     * Called whenever a job is queued, starts polling the schedulers on a new thread of the pool if one is free.
+     */
+    public void signal() {
+        int count;
+
+        do {
+            count = this.draining.get();
+            if (count >= THREADS || !this.hasWork()) return;
+        } while (!this.draining.compareAndSet(count, count + 1));
+
+        this.pool.execute(this::drain);
+    }
+
+    private void drain() {
+        try {
+            Runnable job;
+
+            while ((job = this.next()) != null) {
+                job.run();
+            }
+        } finally {
+            this.draining.decrementAndGet();
+        }
+
+        // a job queued between the last poll and the decrement found every thread busy
+        this.signal();
+    }
+
+    private boolean hasWork() {
+        boolean backgroundFree = this.background.get() < BACKGROUND_THREADS;
+
+        for (FragmentScheduler scheduler : this.schedulers) {
+            if ((backgroundFree || this.isSelected(scheduler)) && scheduler.hasWork()) return true;
+        }
+
+        return false;
+    }
+
+    private Runnable next() {
+        for (FragmentScheduler scheduler : this.schedulers) {
+            if (!this.isSelected(scheduler)) continue;
+            Runnable job = scheduler.poll();
+            if (job != null) return job;
+        }
+
+        if (this.background.incrementAndGet() <= BACKGROUND_THREADS) {
+            for (FragmentScheduler scheduler : this.schedulers) {
+                if (this.isSelected(scheduler)) continue;
+                Runnable job = scheduler.poll();
+                if (job == null) continue;
+
+                return () -> {
+                    try {
+                        job.run();
+                    } finally {
+                        this.background.decrementAndGet();
+                    }
+                };
+            }
+        }
+
+        this.background.decrementAndGet();
+        return null;
+    }
+
+}
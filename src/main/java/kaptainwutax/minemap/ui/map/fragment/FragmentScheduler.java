@@ -1,8 +1,8 @@
 package kaptainwutax.minemap.ui.map.fragment;
 
-import kaptainwutax.mcutils.util.data.ThreadPool;
 import kaptainwutax.minemap.init.Configs;
 import kaptainwutax.minemap.init.Logger;
+import kaptainwutax.minemap.ui.map.MapManager;
 import kaptainwutax.minemap.ui.map.MapPanel;
 import kaptainwutax.minemap.util.data.DrawInfo;
 import kaptainwutax.mcutils.util.pos.BPos;
@@ -10,15 +10,22 @@ import kaptainwutax.mcutils.util.pos.RPos;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.Arrays;
 import java.util.List;
-import java.util.*;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 public class FragmentScheduler {
 
+    // regions past that margin are not worth generating anymore
+    public static final int VISIBLE_MARGIN = 1;
+    // how many sizes up the cache is searched for a fragment to draw while a region is loading
+    public static final int FALLBACK_LEVELS = 3;
+
     public static Fragment LOADING_FRAGMENT = new Fragment(0, 0, 0, null) {
         @Override
         public void drawBiomes(Graphics graphics, DrawInfo info) { }
@@ -26,100 +33,373 @@ public class FragmentScheduler {
         @Override
         public void drawFeatures(Graphics graphics, DrawInfo info) { }
     };
-    protected final Map<RPos, Fragment> fragments = new ConcurrentHashMap<>();
-    private final AtomicBoolean scheduledModified = new AtomicBoolean(false);
-    public List<RPos> scheduledRegions = Collections.synchronizedList(new ArrayList<>());
-    protected ThreadPool executor;
+    protected final FragmentCache cache;
+    protected final Map<Fragment, RPos> generating = new ConcurrentHashMap<>();
+    protected final Set<Fragment> pendingBiomes = ConcurrentHashMap.newKeySet();
+    protected final Set<Fragment> pendingFeatures = ConcurrentHashMap.newKeySet();
+    protected final FragmentStage previewStage = new FragmentStage("previews");
+    protected final FragmentStage biomeStage = new FragmentStage("biomes");
+    protected final FragmentStage featureStage = new FragmentStage("features");
+    // jobs of this map running at once on the shared executor
+    private final AtomicInteger running = new AtomicInteger();
+    private final int threadCount;
+    // center of the view as last seen by the paint loop, the workers reorder the queues when it moves
+    private volatile RPos centerRegion;
+    // level at which the biomes are sampled for the current zoom, see MapManager#getMipLevel
+    private volatile int mipLevel;
+    // width in pixels of a fragment at the current zoom, the biome stage builds the images for it
+    private volatile int displaySize;
+    // set once the map is closed, the jobs still running then drop what they generated
+    private volatile boolean terminated;
     protected MapPanel listener;
 
+    /**
+     * @param threadCount how many jobs of this map can run at once, the executor is shared by every map
+     */
     public FragmentScheduler(MapPanel listener, int threadCount) {
         this.listener = listener;
-        this.executor = new ThreadPool(threadCount + 1);
-
-        this.executor.run(() -> {
-            while (!this.executor.getExecutor().isShutdown()) {
-                RPos nearest = this.getNearestScheduled();
-
-                if (nearest == null) {
-                    try {Thread.sleep(10);} catch (InterruptedException e) {
-                        Logger.LOGGER.severe(e.toString());
-                        e.printStackTrace();
-                    }
-                    continue;
-                } else if (!this.isInBounds(nearest)) {
-                    this.fragments.remove(nearest);
-                    this.scheduledRegions.remove(nearest);
-                    continue;
-                }
-
-                this.scheduledRegions.remove(nearest);
-
-                try {
-                    this.executor.run(() -> {
-                        Fragment fragment = new Fragment(nearest, this.listener.getContext());
-                        this.fragments.put(nearest, fragment);
-                        SwingUtilities.invokeLater(() -> this.listener.repaint());
-                    });
-                } catch (RejectedExecutionException ignored) {
-
-                }
-
-                this.executor.awaitFreeThread();
+        this.threadCount = Math.max(threadCount, 1);
+        this.cache = new FragmentCache(Configs.USER_PROFILE.getUserSettings().getFragmentCacheBudget());
+        FragmentExecutor.getInstance().register(this);
+    }
+
+    /**
+     * @return true if a job is queued and this map is not already running as many as it may
+     */
+    public boolean hasWork() {
+        if (this.running.get() >= this.threadCount) return false;
+        return this.previewStage.getQueued() + this.biomeStage.getQueued() + this.featureStage.getQueued() > 0;
+    }
+
+    /**
+     * Called by {@link FragmentExecutor} on one of its threads.
+     *
+     * @return the next job of this map, or null if there is none or this map already runs as many as it may
+     */
+    public Runnable poll() {
+        if (this.terminated) return null;
+
+        if (this.running.incrementAndGet() > this.threadCount) {
+            this.running.decrementAndGet();
+            return null;
+        }
+
+        RPos center = this.centerRegion;
+        this.previewStage.reprioritize(center, this::distanceToQueueCenter);
+        this.biomeStage.reprioritize(center, this::distanceToQueueCenter);
+        this.featureStage.reprioritize(center, this::distanceToQueueCenter);
+
+        // coarse previews go first so no visible tile stays empty, then the selected layer, then the features
+        FragmentStage.Job job;
+        Runnable runnable = null;
+
+        if ((job = this.previewStage.poll()) != null) {
+            FragmentStage.Job preview = job;
+            runnable = () -> this.runPreview(preview);
+        } else if ((job = this.biomeStage.poll()) != null) {
+            FragmentStage.Job biomes = job;
+            runnable = () -> this.runBiomes(biomes);
+        } else if ((job = this.featureStage.poll()) != null) {
+            FragmentStage.Job features = job;
+            runnable = () -> this.runFeatures(features);
+        }
+
+        if (runnable == null) {
+            this.running.decrementAndGet();
+            return null;
+        }
+
+        Runnable task = runnable;
+
+        return () -> {
+            try {
+                task.run();
+            } finally {
+                this.running.decrementAndGet();
             }
-        });
+        };
     }
 
-    public void forEachFragment(Consumer<Fragment> consumer) {
-        this.fragments.values().forEach(consumer);
+    private void runPreview(FragmentStage.Job job) {
+        if (!this.isVisible(job.region, job.fragment)) {
+            this.cache.remove(job.region, job.fragment.getLayerId(), LOADING_FRAGMENT);
+            return;
+        }
+
+        long start = System.nanoTime();
+        this.generating.put(job.fragment, job.region);
+
+        try {
+            job.fragment.generatePreview(this.mipLevel, this.displaySize);
+            if (this.dropIfTerminated(job.fragment)) return;
+
+            // the region got removed and maybe scheduled again meanwhile
+            if (!this.cache.replace(job.region, LOADING_FRAGMENT, job.fragment)) {
+                job.fragment.release();
+                this.previewStage.onCancelled(System.nanoTime() - start);
+                return;
+            }
+
+            this.cache.evict(this::evictionDistance);
+            this.previewStage.onCompleted(System.nanoTime() - start);
+            this.scheduleNext(job.region, job.fragment, job.priority);
+            SwingUtilities.invokeLater(() -> this.listener.repaint());
+        } catch (CancellationException e) {
+            // left the view while generating, it gets scheduled again once visible
+            this.cache.remove(job.region, job.fragment.getLayerId(), LOADING_FRAGMENT);
+            job.fragment.release();
+            this.previewStage.onCancelled(System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            this.cache.remove(job.region, job.fragment.getLayerId(), LOADING_FRAGMENT);
+            job.fragment.release();
+            this.previewStage.onFailed(System.nanoTime() - start);
+            Logger.LOGGER.severe(e.toString());
+            e.printStackTrace();
+        } finally {
+            this.generating.remove(job.fragment);
+        }
     }
 
-    public void terminate() {
-        this.executor.shutdown();
+    private void runBiomes(FragmentStage.Job job) {
+        if (!this.isVisible(job.region, job.fragment)) {
+            this.pendingBiomes.remove(job.fragment);
+            return;
+        }
+
+        long start = System.nanoTime();
+        this.generating.put(job.fragment, job.region);
+
+        try {
+            job.fragment.generateBiomes(this.mipLevel, this.displaySize);
+            if (this.dropIfTerminated(job.fragment)) return;
+            // put it again so the cache accounts for the full resolution image
+            if (this.cache.replace(job.region, job.fragment, job.fragment)) this.cache.evict(this::evictionDistance);
+            this.biomeStage.onCompleted(System.nanoTime() - start);
+            this.pendingBiomes.remove(job.fragment);
+            this.scheduleNext(job.region, job.fragment, job.priority);
+            SwingUtilities.invokeLater(() -> this.listener.repaint());
+        } catch (CancellationException e) {
+            // the coarser biomes stay on screen, the selected layer gets scheduled again once visible
+            this.biomeStage.onCancelled(System.nanoTime() - start);
+            this.pendingBiomes.remove(job.fragment);
+        } catch (RuntimeException e) {
+            // stays pending so a broken layer isn't retried on every frame
+            this.biomeStage.onFailed(System.nanoTime() - start);
+            Logger.LOGGER.severe(e.toString());
+            e.printStackTrace();
+        } finally {
+            this.generating.remove(job.fragment);
+        }
     }
 
-    public void purge() {
-        this.scheduledRegions.removeIf(region -> !this.isInBounds(region));
-        this.fragments.entrySet().removeIf(e -> !this.isInBounds(e.getKey()));
+    private void runFeatures(FragmentStage.Job job) {
+        if (!this.isVisible(job.region, job.fragment)) {
+            this.pendingFeatures.remove(job.fragment);
+            return;
+        }
+
+        long start = System.nanoTime();
+        this.generating.put(job.fragment, job.region);
+
+        try {
+            job.fragment.generateFeatures();
+            if (this.dropIfTerminated(job.fragment)) return;
+            // put it again so the cache accounts for the feature positions
+            if (this.cache.replace(job.region, job.fragment, job.fragment)) this.cache.evict(this::evictionDistance);
+            this.featureStage.onCompleted(System.nanoTime() - start);
+            this.pendingFeatures.remove(job.fragment);
+            SwingUtilities.invokeLater(() -> this.listener.repaint());
+        } catch (CancellationException e) {
+            // the biomes stay on screen, the features get scheduled again once visible
+            this.featureStage.onCancelled(System.nanoTime() - start);
+            this.pendingFeatures.remove(job.fragment);
+        } catch (RuntimeException e) {
+            // stays pending so a broken feature isn't retried on every frame
+            this.featureStage.onFailed(System.nanoTime() - start);
+            Logger.LOGGER.severe(e.toString());
+            e.printStackTrace();
+        } finally {
+            this.generating.remove(job.fragment);
+        }
+    }
+
+    /**
+     * The cache of a terminated scheduler was already cleared, what the fragment just shared would stay used forever.
+     *
+     * @return true if the fragment was released instead of being published
+     */
+    private boolean dropIfTerminated(Fragment fragment) {
+        if (!this.terminated) return false;
+        fragment.release();
+        return true;
+    }
+
+    private void scheduleNext(RPos region, Fragment fragment, double priority) {
+        if (this.needsBiomes(fragment)) {
+            this.schedule(this.biomeStage, this.pendingBiomes, region, fragment, priority);
+        } else if (!fragment.hasFeatures()) {
+            this.schedule(this.featureStage, this.pendingFeatures, region, fragment, priority);
+        }
     }
 
-    public RPos getNearestScheduled() {
-        if (this.scheduledModified.getAndSet(false)) {
-            SwingUtilities.invokeLater(() -> this.scheduledRegions.sort(Comparator.comparingDouble(this::distanceToCenter)));
+    private boolean needsBiomes(Fragment fragment) {
+        return fragment.isPreview() || fragment.getMipLevel() > this.mipLevel || fragment.needsImage(this.displaySize);
+    }
+
+    private void schedule(FragmentStage stage, Set<Fragment> pending, RPos region, Fragment fragment, double priority) {
+        if (!pending.add(fragment)) return;
+        fragment.resume();
+        stage.offer(region, fragment, priority);
+        FragmentExecutor.getInstance().signal();
+    }
+
+    /**
+     * Iterates over the cached fragments of the current size and layer, the ones kept from other zoom levels or
+     * layers are skipped.
+     */
+    public void forEachFragment(Consumer<Fragment> consumer) {
+        int size = this.listener.getManager().blocksPerFragment;
+        int layerId = this.listener.getContext().getLayerId();
+        this.cache.forEach((region, fragment) -> {
+            if (region.getRegionSize() == size && fragment.getLayerId() == layerId) consumer.accept(fragment);
+        });
+    }
+
+    /**
+     * Finds the cached fragments of another size that cover a region still loading after a zoom, the larger
+     * ones first and the four smaller ones otherwise.
+     */
+    public void forEachFallback(int regionX, int regionZ, Consumer<Fragment> consumer) {
+        int size = this.listener.getManager().blocksPerFragment;
+        int layerId = this.listener.getContext().getLayerId();
+
+        for (int level = 1; level <= FALLBACK_LEVELS && size << level <= MapManager.MAX_REGION_SIZE; level++) {
+            Fragment parent = this.cache.get(new RPos(regionX >> level, regionZ >> level, size << level), layerId);
+
+            if (parent != null && parent != LOADING_FRAGMENT) {
+                consumer.accept(parent);
+                return;
+            }
         }
 
-        if (!this.scheduledRegions.isEmpty()) {
-            return this.scheduledRegions.get(0);
+        if (size / 2 < MapManager.DEFAULT_REGION_SIZE) return;
+
+        for (int x = 0; x < 2; x++) {
+            for (int z = 0; z < 2; z++) {
+                Fragment child = this.cache.get(new RPos(regionX * 2 + x, regionZ * 2 + z, size / 2), layerId);
+                if (child != null && child != LOADING_FRAGMENT) consumer.accept(child);
+            }
         }
+    }
+
+    public FragmentCache getCache() {
+        return this.cache;
+    }
+
+    public List<FragmentStage> getStages() {
+        return Arrays.asList(this.previewStage, this.biomeStage, this.featureStage);
+    }
+
+    public void terminate() {
+        this.terminated = true;
+        FragmentExecutor.getInstance().unregister(this);
+        this.generating.keySet().forEach(Fragment::cancel);
+        Logger.LOGGER.info(String.format("Terminated scheduler for %s %d: %s %s %s %s %s", this.listener.getContext().dimension.getName(),
+                this.listener.getContext().worldSeed, this.cache, SharedFragmentCache.getInstance(), this.previewStage, this.biomeStage, this.featureStage));
+        // the fragments of that map no longer hold on to the shared values
+        this.cache.close();
+    }
+
+    public void purge() {
+        this.cache.tick();
+        this.centerRegion = this.getCenterRegion();
+        this.mipLevel = this.listener.getManager().getMipLevel(this.listener.getContext().getBiomeLayer().getScale());
+        this.displaySize = (int) this.listener.getManager().pixelsPerFragment;
+        this.generating.forEach((fragment, region) -> {
+            if (!this.isVisible(region, fragment)) fragment.cancel();
+        });
+        this.previewStage.removeIf(job -> {
+            if (this.isVisible(job.region, job.fragment)) return false;
+            this.cache.remove(job.region, job.fragment.getLayerId(), LOADING_FRAGMENT);
+            return true;
+        });
+        this.biomeStage.removeIf(job -> {
+            if (this.isVisible(job.region, job.fragment)) return false;
+            this.pendingBiomes.remove(job.fragment);
+            return true;
+        });
+        this.featureStage.removeIf(job -> {
+            if (this.isVisible(job.region, job.fragment)) return false;
+            this.pendingFeatures.remove(job.fragment);
+            return true;
+        });
+    }
 
-        return null;
+    public RPos getCenterRegion() {
+        return this.listener.getManager().getCenterPos().toRegionPos(this.listener.getManager().blocksPerFragment);
     }
 
     public double distanceToCenter(RPos regionPos) {
-        return regionPos.distanceTo(this.listener.getManager().getCenterPos()
-                        .toRegionPos(this.listener.getManager().blocksPerFragment),
-                Configs.USER_PROFILE.getUserSettings().getFragmentMetric());
+        return this.distanceTo(regionPos, this.getCenterRegion());
+    }
+
+    private double distanceToQueueCenter(RPos regionPos) {
+        RPos center = this.centerRegion;
+        return center == null ? 0.0D : this.distanceTo(regionPos, center);
     }
 
-    public boolean isInBounds(RPos region) {
+    private double evictionDistance(RPos regionPos) {
+        RPos center = this.centerRegion;
+        if (center == null) return 0.0D;
+        // in fragments of the current size, the cache also holds fragments of the other zoom levels
+        BPos pos = regionPos.toBlockPos(), centerPos = center.toBlockPos();
+        int dx = Math.abs(pos.getX() + regionPos.getRegionSize() / 2 - centerPos.getX() - center.getRegionSize() / 2);
+        int dz = Math.abs(pos.getZ() + regionPos.getRegionSize() / 2 - centerPos.getZ() - center.getRegionSize() / 2);
+        return (double) Math.max(dx, dz) / center.getRegionSize();
+    }
+
+    private double distanceTo(RPos regionPos, RPos center) {
+        return regionPos.distanceTo(center, Configs.USER_PROFILE.getUserSettings().getFragmentMetric());
+    }
+
+    public boolean isVisible(RPos region) {
+        // fragments of another size are left over from a previous zoom level
+        if (region.getRegionSize() != this.listener.getManager().blocksPerFragment) return false;
+        return this.isInBounds(region, VISIBLE_MARGIN);
+    }
+
+    /**
+     * @return true if that fragment is visible and of the selected layer
+     */
+    public boolean isVisible(RPos region, Fragment fragment) {
+        return fragment.getLayerId() == this.listener.getContext().getLayerId() && this.isVisible(region);
+    }
+
+    public boolean isInBounds(RPos region, int margin) {
         BPos min = this.listener.getManager().getPos(0, 0);
         BPos max = this.listener.getManager().getPos(this.listener.getWidth(), this.listener.getHeight());
-        RPos regionMin = min.toRegionPos(this.listener.getManager().blocksPerFragment);
-        RPos regionMax = max.toRegionPos(this.listener.getManager().blocksPerFragment);
-        if (region.getX() < regionMin.getX() - 40 || region.getX() > regionMax.getX() + 40) return false;
-        if (region.getZ() < regionMin.getZ() - 40 || region.getZ() > regionMax.getZ() + 40) return false;
+        RPos regionMin = min.toRegionPos(region.getRegionSize());
+        RPos regionMax = max.toRegionPos(region.getRegionSize());
+        if (region.getX() < regionMin.getX() - margin || region.getX() > regionMax.getX() + margin) return false;
+        if (region.getZ() < regionMin.getZ() - margin || region.getZ() > regionMax.getZ() + margin) return false;
         return true;
     }
 
     public Fragment getFragmentAt(int regionX, int regionZ) {
         RPos regionPos = new RPos(regionX, regionZ, this.listener.getManager().blocksPerFragment);
+        Fragment fragment = this.cache.getOrPlaceholder(regionPos, this.listener.getContext().getLayerId(), LOADING_FRAGMENT);
+
+        if (fragment == null) {
+            this.previewStage.offer(regionPos, new Fragment(regionPos, this.listener.getContext(), false), this.distanceToCenter(regionPos));
+            FragmentExecutor.getInstance().signal();
+            return LOADING_FRAGMENT;
+        }
 
-        if (!this.fragments.containsKey(regionPos) && !this.scheduledRegions.contains(regionPos)) {
-            this.fragments.put(regionPos, LOADING_FRAGMENT);
-            this.scheduledRegions.add(regionPos);
-            this.scheduledModified.set(true);
+        if (fragment != LOADING_FRAGMENT && (this.needsBiomes(fragment) || !fragment.hasFeatures())) {
+            this.scheduleNext(regionPos, fragment, this.distanceToCenter(regionPos));
         }
 
-        return this.fragments.get(regionPos);
+        return fragment;
     }
 
 }
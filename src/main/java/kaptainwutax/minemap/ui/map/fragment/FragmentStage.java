@@ -0,0 +1,137 @@
+package kaptainwutax.minemap.ui.map.fragment;
+
+import kaptainwutax.mcutils.util.pos.RPos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * One step of the fragment pipeline with its own queue ordered by distance to the view and its own metrics,
+ * so a slow stage can't hold back the fragments waiting on a faster one.
+ */
+public class FragmentStage {
+
+    private final String name;
+    private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>();
+    private final Object reorderLock = new Object();
+    private volatile RPos queueCenter;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+
+    public FragmentStage(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void offer(RPos region, Fragment fragment, double priority) {
+        this.queue.add(new Job(region, fragment, priority));
+    }
+
+    public Job poll() {
+        return this.queue.poll();
+    }
+
+    public void removeIf(Predicate<Job> predicate) {
+        this.queue.removeIf(predicate);
+    }
+
+    public int getQueued() {
+        return this.queue.size();
+    }
+
+    /**
+     * Recomputes the priority of every queued job once the view center moved.
+     */
+    public void reprioritize(RPos center, ToDoubleFunction<RPos> distance) {
+        if (center == null || center.equals(this.queueCenter)) return;
+
+        synchronized (this.reorderLock) {
+            if (center.equals(this.queueCenter)) return;
+            this.queueCenter = center;
+            List<Job> pending = new ArrayList<>(this.queue.size());
+            this.queue.drainTo(pending);
+
+            for (Job job : pending) {
+                this.queue.add(new Job(job.region, job.fragment, distance.applyAsDouble(job.region)));
+            }
+        }
+    }
+
+    public void onCompleted(long nanos) {
+        this.completed.increment();
+        this.busyNanos.add(nanos);
+    }
+
+    public void onCancelled(long nanos) {
+        this.cancelled.increment();
+        this.busyNanos.add(nanos);
+    }
+
+    public void onFailed(long nanos) {
+        this.failed.increment();
+        this.busyNanos.add(nanos);
+    }
+
+    public long getCompleted() {
+        return this.completed.sum();
+    }
+
+    public long getCancelled() {
+        return this.cancelled.sum();
+    }
+
+    public long getFailed() {
+        return this.failed.sum();
+    }
+
+    public long getBusyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.busyNanos.sum());
+    }
+
+    public double getAverageMillis() {
+        long count = this.getCompleted() + this.getCancelled() + this.getFailed();
+        return count == 0 ? 0.0D : (double) this.getBusyMillis() / count;
+    }
+
+    @Override
+    public String toString() {
+        return "FragmentStage{" +
+                "name=" + this.name +
+                ", queued=" + this.getQueued() +
+                ", completed=" + this.getCompleted() +
+                ", cancelled=" + this.getCancelled() +
+                ", failed=" + this.getFailed() +
+                ", busyMillis=" + this.getBusyMillis() +
+                ", averageMillis=" + String.format("%.2f", this.getAverageMillis()) +
+                '}';
+    }
+
+    public static class Job implements Comparable<Job> {
+        public final RPos region;
+        public final Fragment fragment;
+        public final double priority;
+
+        public Job(RPos region, Fragment fragment, double priority) {
+            this.region = region;
+            this.fragment = fragment;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            return Double.compare(this.priority, other.priority);
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+package kaptainwutax.minemap.ui.map.fragment;
+
+import kaptainwutax.featureutils.Feature;
+import kaptainwutax.minemap.init.Configs;
+import kaptainwutax.minemap.ui.map.MapContext;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Biome grids and feature positions shared by the maps of the whole process, so two tabs viewing the same world
+ * or a tab opened again only compute them once. The values are never modified once shared. An entry is counted
+ * once per fragment using it. The entries no fragment uses anymore are kept in least recently used order and
+ * dropped from the oldest once the budget is exceeded, the used ones are never looked at.
+ */
+public class SharedFragmentCache {
+
+    // evict down to that ratio of the budget so we don't evict on every insertion
+    private static final double EVICTION_RATIO = 0.9D;
+    private static SharedFragmentCache INSTANCE;
+
+    private final Map<List<Object>, Entry> entries = new ConcurrentHashMap<>();
+    // keys of the entries without refs, least recently used first, only locked alone or inside a compute call
+    private final LinkedHashMap<List<Object>, Boolean> unused = new LinkedHashMap<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final long budget;
+
+    public SharedFragmentCache(long budget) {
+        this.budget = budget;
+    }
+
+    public static synchronized SharedFragmentCache getInstance() {
+        if (INSTANCE == null) INSTANCE = new SharedFragmentCache(Configs.USER_PROFILE.getUserSettings().getSharedCacheBudget());
+        return INSTANCE;
+    }
+
+    /**
+     * The grid of a layer only depends on the world and the fragment bounds, the mip level is kept in the entry.
+     */
+    public static List<Object> getBiomesKey(MapContext context, int layerId, Fragment fragment) {
+        return Arrays.asList(context.worldSeed, context.version, context.dimension, layerId,
+                fragment.getX(), fragment.getZ(), fragment.getSize());
+    }
+
+    /**
+     * The positions also depend on the salt of the feature and on the structure seed mode, see the region icons.
+     */
+    public static List<Object> getFeatureKey(MapContext context, Feature<?, ?> feature, Fragment fragment) {
+        return Arrays.asList(context.worldSeed, context.version, context.dimension, feature.getName(),
+                Configs.SALTS.getSalt(context.version, feature.getName()), Configs.USER_PROFILE.getUserSettings().structureMode,
+                fragment.getX(), fragment.getZ(), fragment.getSize());
+    }
+
+    public long getBudget() {
+        return this.budget;
+    }
+
+    public long getUsedBytes() {
+        return this.usedBytes.get();
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @param level the coarsest level accepted, every level halves the resolution
+     * @return the value shared at that key counted as used by the caller, or null if there is none fine enough
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T acquire(List<Object> key, int level) {
+        Entry[] found = new Entry[1];
+
+        this.entries.computeIfPresent(key, (k, entry) -> {
+            if (entry.level > level) return entry;
+            if (entry.refs++ == 0) this.setUnused(k, false);
+            found[0] = entry;
+            return entry;
+        });
+
+        if (found[0] == null) {
+            this.misses.increment();
+            return null;
+        }
+
+        this.hits.increment();
+        return (T) found[0].value;
+    }
+
+    /**
+     * Shares that value unless a finer one already is.
+     *
+     * @return the value now shared at that key, counted as used by the caller
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T share(List<Object> key, T value, int level, long bytes) {
+        Entry[] kept = new Entry[1];
+
+        this.entries.compute(key, (k, entry) -> {
+            if (entry == null) {
+                entry = new Entry(value, level, bytes);
+                this.usedBytes.addAndGet(bytes);
+            } else if (level < entry.level) {
+                this.usedBytes.addAndGet(bytes - entry.bytes);
+                entry.value = value;
+                entry.level = level;
+                entry.bytes = bytes;
+            }
+
+            if (entry.refs++ == 0) this.setUnused(k, false);
+            kept[0] = entry;
+            return entry;
+        });
+
+        this.evict();
+        return (T) kept[0].value;
+    }
+
+    public void release(List<Object> key) {
+        this.entries.computeIfPresent(key, (k, entry) -> {
+            if (entry.refs > 0 && --entry.refs == 0) this.setUnused(k, true);
+            return entry;
+        });
+    }
+
+    private void setUnused(List<Object> key, boolean unused) {
+        synchronized (this.unused) {
+            if (unused) this.unused.put(key, Boolean.TRUE);
+            else this.unused.remove(key);
+        }
+    }
+
+    private List<Object> pollUnused() {
+        synchronized (this.unused) {
+            Iterator<List<Object>> iterator = this.unused.keySet().iterator();
+            if (!iterator.hasNext()) return null;
+            List<Object> key = iterator.next();
+            iterator.remove();
+            return key;
+        }
+    }
+
+    /**
+     * Drops the entries no fragment uses anymore until the cache is back under its budget, the ones released the
+     * longest time ago first.
+     */
+    public void evict() {
+        if (this.usedBytes.get() <= this.budget) return;
+        long target = (long) (this.budget * EVICTION_RATIO);
+        List<Object> key;
+
+        while (this.usedBytes.get() > target && (key = this.pollUnused()) != null) {
+            boolean[] removed = new boolean[1];
+
+            this.entries.computeIfPresent(key, (k, entry) -> {
+                // acquired again since it was polled
+                if (entry.refs > 0) return entry;
+                this.usedBytes.addAndGet(-entry.bytes);
+                removed[0] = true;
+                return null;
+            });
+
+            if (removed[0]) this.evictions.increment();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SharedFragmentCache{" +
+                "entries=" + this.size() +
+                ", usedBytes=" + this.getUsedBytes() +
+                ", budget=" + this.getBudget() +
+                ", hits=" + this.hits.sum() +
+                ", misses=" + this.misses.sum() +
+                ", evictions=" + this.evictions.sum() +
+                '}';
+    }
+
+    private static class Entry {
+        // only read and written inside the compute calls of the map
+        private Object value;
+        private int level;
+        private long bytes;
+        private int refs;
+
+        private Entry(Object value, int level, long bytes) {
+            this.value = value;
+            this.level = level;
+            this.bytes = bytes;
+        }
+    }
+
+}
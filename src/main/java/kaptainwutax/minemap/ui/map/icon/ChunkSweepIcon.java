@@ -0,0 +1,50 @@
+package kaptainwutax.minemap.ui.map.icon;
+
+import kaptainwutax.featureutils.Feature;
+import kaptainwutax.minemap.ui.map.fragment.Fragment;
+import kaptainwutax.mcutils.rand.ChunkRand;
+import kaptainwutax.mcutils.util.pos.BPos;
+
+/**
+ * Icons of features tested chunk by chunk, a fragment tests all of them in a single pass over its chunks instead
+ * of one pass per feature, see {@link kaptainwutax.minemap.ui.map.fragment.ChunkSweep}.
+ */
+public interface ChunkSweepIcon {
+
+    /**
+     * @return true if that feature is tested on every chunk
+     */
+    default boolean isSwept(Feature<?, ?> feature) {
+        return true;
+    }
+
+    /**
+     * @return true if that feature is kept as a {@link kaptainwutax.minemap.ui.map.fragment.ChunkBitmap} and drawn
+     * as one overlay per fragment, its positions must then be the corners of the chunks
+     */
+    default boolean isBitmap(Feature<?, ?> feature) {
+        return false;
+    }
+
+    /**
+     * @return the ARGB color of the chunks of that feature in its overlay, see {@link #isBitmap(Feature)}
+     */
+    default int getBitmapColor(Feature<?, ?> feature) {
+        return 0x80FFFFFF;
+    }
+
+    /**
+     * Called for every chunk of the fragment, keep it cheap since it runs for each shown feature in turn.
+     *
+     * @return true if that feature is in that chunk
+     */
+    boolean testChunk(Feature<?, ?> feature, Fragment fragment, int chunkX, int chunkZ, ChunkRand rand);
+
+    /**
+     * Only called on the chunks the feature was found in.
+     *
+     * @return the position of the icon of that feature in that chunk
+     */
+    BPos getPosition(Feature<?, ?> feature, Fragment fragment, int chunkX, int chunkZ, ChunkRand rand);
+
+}
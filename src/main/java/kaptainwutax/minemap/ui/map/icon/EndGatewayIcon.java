@@ -9,7 +9,7 @@ import kaptainwutax.mcutils.util.pos.BPos;
 
 import java.util.List;
 
-public class EndGatewayIcon extends StaticIcon {
+public class EndGatewayIcon extends StaticIcon implements ChunkSweepIcon {
 
     public EndGatewayIcon(MapContext context) {
         super(context);
@@ -26,6 +26,7 @@ public class EndGatewayIcon extends StaticIcon {
         ChunkRand rand = new ChunkRand();
 
         for (int x = fragment.getX(); x < fragment.getX() + fragment.getSize(); x += 16) {
+            fragment.checkCancelled();
             for (int z = fragment.getZ(); z < fragment.getZ() + fragment.getSize(); z += 16) {
                 EndGateway.Data data = gateway.getData(this.getContext().worldSeed, x >> 4, z >> 4, rand);
 
@@ -36,4 +37,17 @@ public class EndGatewayIcon extends StaticIcon {
         }
     }
 
+    @Override
+    public boolean testChunk(Feature<?, ?> feature, Fragment fragment, int chunkX, int chunkZ, ChunkRand rand) {
+        EndGateway gateway = (EndGateway) feature;
+        return gateway.getData(this.getContext().worldSeed, chunkX, chunkZ, rand) != null
+                && gateway.canSpawn(chunkX, chunkZ, this.getContext().getBiomeSource());
+    }
+
+    @Override
+    public BPos getPosition(Feature<?, ?> feature, Fragment fragment, int chunkX, int chunkZ, ChunkRand rand) {
+        EndGateway.Data data = ((EndGateway) feature).getData(this.getContext().worldSeed, chunkX, chunkZ, rand);
+        return data == null ? null : new BPos(data.blockX, 0, data.blockZ);
+    }
+
 }
@@ -3,6 +3,7 @@ package kaptainwutax.minemap.ui.map.icon;
 import kaptainwutax.featureutils.Feature;
 import kaptainwutax.minemap.MineMap;
 import kaptainwutax.minemap.ui.map.MapContext;
+import kaptainwutax.minemap.ui.map.MapManager;
 import kaptainwutax.minemap.ui.map.fragment.Fragment;
 import kaptainwutax.minemap.util.data.DrawInfo;
 import kaptainwutax.mcutils.util.pos.BPos;
@@ -34,9 +35,19 @@ public abstract class IconRenderer {
 
     public abstract boolean isHovered(Fragment fragment, BPos hoveredPos, BPos featurePos, int width, int height, Feature<?, ?> feature);
 
+    /**
+     * @return the farthest in blocks on either axis a position can be from the cursor and still be hovered at that
+     * size of fragment, negative if that feature is never hovered, infinite if unknown
+     */
+    public double getHoverDistance(Fragment fragment, int width, int height, Feature<?, ?> feature) {
+        return Double.POSITIVE_INFINITY;
+    }
+
     public float getZoomScaleFactor() {
         if (MineMap.INSTANCE == null) return 1F;
-        double pxFrag = MineMap.INSTANCE.worldTabs.getSelectedMapPanel().getManager().pixelsPerFragment;
+        MapManager manager = MineMap.INSTANCE.worldTabs.getSelectedMapPanel().getManager();
+        // in pixels per default fragment so the icons keep shrinking once the fragments grow
+        double pxFrag = manager.pixelsPerFragment * MapManager.DEFAULT_REGION_SIZE / manager.blocksPerFragment;
         if (pxFrag < 64) {
             return 1 / 2F;
         } else if (pxFrag < 128) {
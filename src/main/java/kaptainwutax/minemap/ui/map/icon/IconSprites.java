@@ -0,0 +1,162 @@
+package kaptainwutax.minemap.ui.map.icon;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Icons scaled once to the size they are drawn at with their extra info written on them, so drawing an icon is a
+ * single unscaled blit. Keyed by feature class, scale factor, hover state, extra info and font, a sprite is built
+ * again if the icon of its class got replaced since.
+ */
+public final class IconSprites {
+
+    // a few sizes per feature are in use at once, past that the least recently drawn quarter is dropped
+    private static final int MAX_ENTRIES = 1024;
+    private static final Map<Key, Sprite> SPRITES = new ConcurrentHashMap<>();
+    private static final AtomicBoolean EVICTING = new AtomicBoolean();
+
+    private IconSprites() {
+    }
+
+    /**
+     * @param icon the icon of that class as of now
+     * @param font the font the extra info is derived from, only used if there is one
+     */
+    public static Sprite get(Class<?> clazz, BufferedImage icon, double scaleFactor, boolean hovered,
+                             int width, int height, String extraInfo, Font font) {
+        // the font only matters for the label
+        Key key = new Key(clazz, scaleFactor, hovered, extraInfo, extraInfo == null ? null : font);
+        Sprite sprite = SPRITES.get(key);
+
+        if (sprite == null || sprite.source != icon) {
+            // two threads may build the same sprite, the last one is kept
+            sprite = new Sprite(icon, width, height, extraInfo, font, scaleFactor);
+            SPRITES.put(key, sprite);
+            if (SPRITES.size() > MAX_ENTRIES) evict();
+        }
+
+        sprite.lastUsed = System.nanoTime();
+        return sprite;
+    }
+
+    /**
+     * Drops the least recently drawn quarter of the sprites, only one thread sweeps at a time.
+     */
+    private static void evict() {
+        if (!EVICTING.compareAndSet(false, true)) return;
+
+        try {
+            // the times are copied first, the sprites keep being drawn during the sort
+            List<Map.Entry<Key, Long>> entries = new ArrayList<>(SPRITES.size());
+            SPRITES.forEach((key, sprite) -> entries.add(new AbstractMap.SimpleEntry<>(key, sprite.lastUsed)));
+            entries.sort(Map.Entry.comparingByValue());
+
+            for (int i = 0; i < entries.size() / 4; i++) {
+                SPRITES.remove(entries.get(i).getKey());
+            }
+        } finally {
+            EVICTING.set(false);
+        }
+    }
+
+    private static final class Key {
+        private final Class<?> clazz;
+        private final double scaleFactor;
+        private final boolean hovered;
+        private final String extraInfo;
+        private final Font font;
+        private final int hash;
+
+        private Key(Class<?> clazz, double scaleFactor, boolean hovered, String extraInfo, Font font) {
+            this.clazz = clazz;
+            this.scaleFactor = scaleFactor;
+            this.hovered = hovered;
+            this.extraInfo = extraInfo;
+            this.font = font;
+            int hash = clazz.hashCode();
+            hash = 31 * hash + Double.hashCode(scaleFactor);
+            hash = 31 * hash + Boolean.hashCode(hovered);
+            hash = 31 * hash + Objects.hashCode(extraInfo);
+            this.hash = 31 * hash + Objects.hashCode(font);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return this.clazz == key.clazz && Double.compare(this.scaleFactor, key.scaleFactor) == 0 && this.hovered == key.hovered
+                    && Objects.equals(this.extraInfo, key.extraInfo) && Objects.equals(this.font, key.font);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    public static class Sprite {
+        private final BufferedImage source;
+        private volatile long lastUsed;
+        private final BufferedImage image;
+        // where the icon starts in the image, the extra info can stick out of it
+        private final int offsetX;
+        private final int offsetY;
+
+        private Sprite(BufferedImage icon, int width, int height, String extraInfo, Font font, double scaleFactor) {
+            this.source = icon;
+            char[] chars = extraInfo == null ? null : extraInfo.toCharArray();
+            Font outline = null, text = null;
+            Rectangle bounds = new Rectangle(0, 0, width, height);
+            int textX = 0, textY = height - 5;
+
+            if (chars != null) {
+                // same layout as the icons always had, a black outline one pixel up left of the white text
+                outline = font.deriveFont(Font.BOLD, (float) (14 * scaleFactor));
+                text = font.deriveFont(Font.BOLD, (float) (13 * scaleFactor));
+                textX = (chars.length == 1 ? 1 : 0) * (width / 2 - 5);
+                Graphics2D measure = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+                FontMetrics metrics = measure.getFontMetrics(outline);
+                bounds.add(new Rectangle(textX - 1, textY - 1 - metrics.getAscent(), metrics.charsWidth(chars, 0, chars.length) + 2, metrics.getAscent() + metrics.getDescent() + 2));
+                measure.dispose();
+            }
+
+            this.offsetX = -bounds.x;
+            this.offsetY = -bounds.y;
+            this.image = new BufferedImage(Math.max(bounds.width, 1), Math.max(bounds.height, 1), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2d = this.image.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g2d.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
+            g2d.setRenderingHint(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DISABLE);
+            g2d.drawImage(icon, this.offsetX, this.offsetY, width, height, null);
+
+            if (chars != null) {
+                g2d.setColor(Color.BLACK);
+                g2d.setFont(outline);
+                g2d.drawChars(chars, 0, chars.length, this.offsetX + textX - 1, this.offsetY + textY - 1);
+                g2d.setColor(Color.WHITE);
+                g2d.setFont(text);
+                g2d.drawChars(chars, 0, chars.length, this.offsetX + textX, this.offsetY + textY);
+            }
+
+            g2d.dispose();
+        }
+
+        /**
+         * @param x the left of the icon
+         * @param y the top of the icon
+         */
+        public void draw(Graphics graphics, int x, int y) {
+            graphics.drawImage(this.image, x - this.offsetX, y - this.offsetY, null);
+        }
+    }
+
+}
@@ -9,7 +9,7 @@ import kaptainwutax.mcutils.util.pos.BPos;
 
 import java.util.List;
 
-public class MineshaftIcon extends StaticIcon {
+public class MineshaftIcon extends StaticIcon implements ChunkSweepIcon {
 
     public MineshaftIcon(MapContext context) {
         super(context);
@@ -25,6 +25,7 @@ public class MineshaftIcon extends StaticIcon {
         ChunkRand rand = new ChunkRand();
 
         for (int x = fragment.getX() - 16; x < fragment.getX() + fragment.getSize() + 16; x += 16) {
+            fragment.checkCancelled();
             for (int z = fragment.getZ() - 16; z < fragment.getZ() + fragment.getSize() + 16; z += 16) {
                 Feature.Data<Mineshaft> data = ((Mineshaft) feature).at(x >> 4, z >> 4);
                 if (!data.testStart(this.getContext().worldSeed, rand)) continue;
@@ -34,4 +35,15 @@ public class MineshaftIcon extends StaticIcon {
         }
     }
 
+    @Override
+    public boolean testChunk(Feature<?, ?> feature, Fragment fragment, int chunkX, int chunkZ, ChunkRand rand) {
+        Feature.Data<Mineshaft> data = ((Mineshaft) feature).at(chunkX, chunkZ);
+        return data.testStart(this.getContext().worldSeed, rand) && data.testBiome(this.getContext().getBiomeSource());
+    }
+
+    @Override
+    public BPos getPosition(Feature<?, ?> feature, Fragment fragment, int chunkX, int chunkZ, ChunkRand rand) {
+        return new BPos((chunkX << 4) + 9, 0, (chunkZ << 4) + 9);
+    }
+
 }
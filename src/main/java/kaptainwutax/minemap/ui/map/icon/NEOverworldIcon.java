@@ -2,6 +2,7 @@ package kaptainwutax.minemap.ui.map.icon;
 
 import kaptainwutax.featureutils.Feature;
 import kaptainwutax.featureutils.structure.RegionStructure;
+import kaptainwutax.minemap.feature.StructureHelper;
 import kaptainwutax.minemap.ui.map.MapContext;
 import kaptainwutax.minemap.ui.map.fragment.Fragment;
 import kaptainwutax.mcutils.rand.ChunkRand;
@@ -30,11 +31,12 @@ public class NEOverworldIcon extends StaticIcon {
         ChunkRand rand = new ChunkRand();
 
         for (int x = (fragment.getX() << 3) - increment; x < (fragment.getX() + fragment.getSize() << 3) + increment; x += increment) {
+            fragment.checkCancelled();
             for (int z = (fragment.getZ() << 3) - increment; z < (fragment.getZ() + fragment.getSize() << 3) + increment; z += increment) {
                 RegionStructure.Data<?> data = structure.at(x >> 4, z >> 4);
-                CPos pos = structure.getInRegion(this.getContext().worldSeed, data.regionX, data.regionZ, rand);
+                CPos pos = StructureHelper.getInRegion(structure, this.getContext().worldSeed, data.regionX, data.regionZ, rand);
 
-                if (pos != null && structure.canSpawn(pos.getX() >> 3, pos.getZ() >> 3, this.getContext().getBiomeSource(Dimension.OVERWORLD))) {
+                if (pos != null && StructureHelper.canSpawn(structure, pos.getX() >> 3, pos.getZ() >> 3, this.getContext().getBiomeSource(Dimension.OVERWORLD))) {
                     BPos overworldPos = pos.toBlockPos().add(9, 0, 9);
                     positions.add(new BPos(overworldPos.getX() >> 3, 0, overworldPos.getZ() >> 3));
                 }
@@ -36,4 +36,9 @@ public class NullIcon extends IconRenderer {
         return false;
     }
 
+    @Override
+    public double getHoverDistance(Fragment fragment, int width, int height, Feature<?, ?> feature) {
+        return -1.0D;
+    }
+
 }
@@ -4,6 +4,7 @@ import kaptainwutax.featureutils.Feature;
 import kaptainwutax.featureutils.structure.RegionStructure;
 import kaptainwutax.minemap.feature.OWBastionRemnant;
 import kaptainwutax.minemap.feature.OWFortress;
+import kaptainwutax.minemap.feature.StructureHelper;
 import kaptainwutax.minemap.ui.map.MapContext;
 import kaptainwutax.minemap.ui.map.fragment.Fragment;
 import kaptainwutax.mcutils.rand.ChunkRand;
@@ -31,11 +32,13 @@ public class OWNetherIcon extends StaticIcon {
         ChunkRand rand = new ChunkRand();
 
         for (int x = (fragment.getX() >> 3) - increment; x < (fragment.getX() + fragment.getSize() >> 3) + increment; x += increment) {
+            fragment.checkCancelled();
             for (int z = (fragment.getZ() >> 3) - increment; z < (fragment.getZ() + fragment.getSize() >> 3) + increment; z += increment) {
                 RegionStructure.Data<?> data = structure.at(x >> 4, z >> 4);
-                CPos pos = structure.getInRegion(this.getContext().worldSeed, data.regionX, data.regionZ, rand);
+                // the same attempts and biome checks as the nether tab of that world
+                CPos pos = StructureHelper.getInRegion(structure, this.getContext().worldSeed, data.regionX, data.regionZ, rand);
 
-                if (pos != null && structure.canSpawn(pos.getX(), pos.getZ(), this.getContext().getBiomeSource(Dimension.NETHER))) {
+                if (pos != null && StructureHelper.canSpawn(structure, pos, this.getContext().getBiomeSource(Dimension.NETHER))) {
                     BPos netherPos = pos.toBlockPos().add(9, 0, 9);
                     positions.add(new BPos(netherPos.getX() << 3, 0, netherPos.getZ() << 3));
                 }
@@ -2,6 +2,7 @@ package kaptainwutax.minemap.ui.map.icon;
 
 import kaptainwutax.featureutils.Feature;
 import kaptainwutax.featureutils.structure.RegionStructure;
+import kaptainwutax.minemap.feature.StructureHelper;
 import kaptainwutax.minemap.init.Configs;
 import kaptainwutax.minemap.ui.map.MapContext;
 import kaptainwutax.minemap.ui.map.fragment.Fragment;
@@ -11,7 +12,7 @@ import kaptainwutax.mcutils.util.pos.CPos;
 
 import java.util.List;
 
-public class RegionIcon extends StaticIcon {
+public class RegionIcon extends StaticIcon implements ChunkSweepIcon {
 
     public RegionIcon(MapContext context) {
         super(context);
@@ -27,18 +28,15 @@ public class RegionIcon extends StaticIcon {
         RegionStructure<?, ?> structure = (RegionStructure<?, ?>) feature;
         int increment = 16 * structure.getSpacing();
         ChunkRand rand = new ChunkRand();
+        long worldSeedWithSalt = this.getWorldSeedWithSalt(feature);
 
-        long worldSeedWithSalt = this.getContext().worldSeed;
-        if (Configs.SALTS.getSalt(this.getContext().version, feature.getName()) != null) {
-            worldSeedWithSalt -= Configs.SALTS.getDefaultSalt(this.getContext().version, feature.getName());
-            worldSeedWithSalt += Configs.SALTS.getSalt(this.getContext().version, feature.getName());
-        }
         for (int x = fragment.getX() - increment; x < fragment.getX() + fragment.getSize() + increment; x += increment) {
+            fragment.checkCancelled();
             for (int z = fragment.getZ() - increment; z < fragment.getZ() + fragment.getSize() + increment; z += increment) {
                 RegionStructure.Data<?> data = structure.at(x >> 4, z >> 4);
-                CPos pos = structure.getInRegion(worldSeedWithSalt, data.regionX, data.regionZ, rand);
+                CPos pos = StructureHelper.getInRegion(structure, worldSeedWithSalt, data.regionX, data.regionZ, rand);
                 if (pos != null) {
-                    if (structure.canSpawn(pos.getX(), pos.getZ(), this.getContext().getBiomeSource())) {
+                    if (StructureHelper.canSpawn(structure, pos, this.getContext().getBiomeSource())) {
                         positions.add(pos.toBlockPos().add(9, 0, 9));
                     } else if (Configs.USER_PROFILE.getUserSettings().structureMode) {
                         positions.add(pos.toBlockPos().add(9, 0, 9));
@@ -49,4 +47,37 @@ public class RegionIcon extends StaticIcon {
         }
     }
 
+    private long getWorldSeedWithSalt(Feature<?, ?> feature) {
+        long worldSeedWithSalt = this.getContext().worldSeed;
+        if (Configs.SALTS.getSalt(this.getContext().version, feature.getName()) != null) {
+            worldSeedWithSalt -= Configs.SALTS.getDefaultSalt(this.getContext().version, feature.getName());
+            worldSeedWithSalt += Configs.SALTS.getSalt(this.getContext().version, feature.getName());
+        }
+        return worldSeedWithSalt;
+    }
+
+    @Override
+    public boolean isSwept(Feature<?, ?> feature) {
+        // a region of one chunk like buried treasures, the others have few regions per fragment
+        return ((RegionStructure<?, ?>) feature).getSpacing() == 1;
+    }
+
+    @Override
+    public boolean testChunk(Feature<?, ?> feature, Fragment fragment, int chunkX, int chunkZ, ChunkRand rand) {
+        RegionStructure<?, ?> structure = (RegionStructure<?, ?>) feature;
+        RegionStructure.Data<?> data = structure.at(chunkX, chunkZ);
+        CPos pos = StructureHelper.getInRegion(structure, this.getWorldSeedWithSalt(feature), data.regionX, data.regionZ, rand);
+        if (pos == null) return false;
+        return Configs.USER_PROFILE.getUserSettings().structureMode
+                || StructureHelper.canSpawn(structure, pos, this.getContext().getBiomeSource());
+    }
+
+    @Override
+    public BPos getPosition(Feature<?, ?> feature, Fragment fragment, int chunkX, int chunkZ, ChunkRand rand) {
+        RegionStructure<?, ?> structure = (RegionStructure<?, ?>) feature;
+        RegionStructure.Data<?> data = structure.at(chunkX, chunkZ);
+        CPos pos = StructureHelper.getInRegion(structure, this.getWorldSeedWithSalt(feature), data.regionX, data.regionZ, rand);
+        return pos == null ? null : pos.toBlockPos().add(9, 0, 9);
+    }
+
 }
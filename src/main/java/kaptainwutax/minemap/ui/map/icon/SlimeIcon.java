@@ -9,7 +9,10 @@ import kaptainwutax.mcutils.util.pos.BPos;
 
 import java.util.List;
 
-public class SlimeIcon extends DynamicIcon {
+public class SlimeIcon extends DynamicIcon implements ChunkSweepIcon {
+
+    // the green of the icon, translucent so the biomes stay readable under the overlay
+    private static final int OVERLAY_COLOR = 0xA078C468;
 
     public SlimeIcon(MapContext context) {
         super(context, 16);
@@ -30,6 +33,7 @@ public class SlimeIcon extends DynamicIcon {
         ChunkRand rand = new ChunkRand();
 
         for (int x = fragment.getX() - 16; x < fragment.getX() + fragment.getSize() + 16; x += 16) {
+            fragment.checkCancelled();
             for (int z = fragment.getZ() - 16; z < fragment.getZ() + fragment.getSize() + 16; z += 16) {
                 SlimeChunk.Data data = ((SlimeChunk) feature).at(x >> 4, z >> 4, true);
                 if (!data.testStart(fragment.getContext().worldSeed, rand)) continue;
@@ -38,9 +42,34 @@ public class SlimeIcon extends DynamicIcon {
         }
     }
 
+    @Override
+    public boolean isBitmap(Feature<?, ?> feature) {
+        return true;
+    }
+
+    @Override
+    public int getBitmapColor(Feature<?, ?> feature) {
+        return OVERLAY_COLOR;
+    }
+
+    @Override
+    public boolean testChunk(Feature<?, ?> feature, Fragment fragment, int chunkX, int chunkZ, ChunkRand rand) {
+        return ((SlimeChunk) feature).at(chunkX, chunkZ, true).testStart(fragment.getContext().worldSeed, rand);
+    }
+
+    @Override
+    public BPos getPosition(Feature<?, ?> feature, Fragment fragment, int chunkX, int chunkZ, ChunkRand rand) {
+        return new BPos(chunkX << 4, 0, chunkZ << 4);
+    }
+
     @Override
     public boolean isHovered(Fragment fragment, BPos hoveredPos, BPos featurePos, int width, int height, Feature<?, ?> feature) {
         return false;
     }
 
+    @Override
+    public double getHoverDistance(Fragment fragment, int width, int height, Feature<?, ?> feature) {
+        return -1.0D;
+    }
+
 }
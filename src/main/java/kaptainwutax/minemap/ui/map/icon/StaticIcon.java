@@ -15,8 +15,8 @@ import java.util.function.Function;
 public abstract class StaticIcon extends IconRenderer {
 
     private static final int DEFAULT_VALUE = 24;
-    private int iconSizeX;
-    private int iconSizeZ;
+    private final int iconSizeX;
+    private final int iconSizeZ;
 
     public StaticIcon(MapContext context) {
         this(context, DEFAULT_VALUE, DEFAULT_VALUE);
@@ -40,64 +40,57 @@ public abstract class StaticIcon extends IconRenderer {
     public void render(Graphics graphics, DrawInfo info, Feature<?, ?> feature, Fragment fragment, BPos pos, boolean hovered) {
         BufferedImage icon = Icons.get(feature.getClass());
         if (icon == null) return;
-        if (icon.getRaster().getWidth() > icon.getRaster().getHeight()) {
-            this.iconSizeX = DEFAULT_VALUE;
-            this.iconSizeZ = (int) (DEFAULT_VALUE * (float) icon.getRaster().getHeight() / icon.getRaster().getWidth());
-        } else {
-            this.iconSizeZ = DEFAULT_VALUE;
-            this.iconSizeX = (int) (DEFAULT_VALUE * (float) icon.getRaster().getWidth() / icon.getRaster().getHeight());
-        }
-        Graphics2D g2d = (Graphics2D) graphics;
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        // disable stroke change
-        g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
-        // disable weird floating point since pixel accurate
-        g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_OFF);
-        // Interpolation correctly
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-        g2d.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
-        // disable dithering for full color accuracy
-        g2d.setRenderingHint(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DISABLE);
-
-
-        float sizeX = hovered ? this.iconSizeX * this.getHoverScaleFactor() : this.iconSizeX;
-        float sizeZ = hovered ? this.iconSizeZ * this.getHoverScaleFactor() : this.iconSizeZ;
+        int iconSizeX = this.getIconSizeX(icon), iconSizeZ = this.getIconSizeZ(icon);
+        float sizeX = hovered ? iconSizeX * this.getHoverScaleFactor() : iconSizeX;
+        float sizeZ = hovered ? iconSizeZ * this.getHoverScaleFactor() : iconSizeZ;
         double scaleFactor = getZoomScaleFactor() * Configs.ICONS.getSize(feature.getClass());
         sizeX *= scaleFactor;
         sizeZ *= scaleFactor;
+        if ((int) sizeX <= 0 || (int) sizeZ <= 0) return;
 
         int sx = (int) ((double) (pos.getX() - fragment.getX()) / fragment.getSize() * info.width - sizeX / 2.0F);
         int sy = (int) ((double) (pos.getZ() - fragment.getZ()) / fragment.getSize() * info.height - sizeZ / 2.0F);
 
-        g2d.drawImage(icon, info.x + sx, info.y + sy, (int) sizeX, (int) sizeZ, null);
-        if (getExtraInfo() != null && this.getContext().getSettings().showExtraInfos) {
-            String stringInfo = getExtraInfo().apply(pos);
-            if (stringInfo != null) {
-                Color old = g2d.getColor();
-//                g2d.setColor(Color.GRAY);
-//                g2d.setStroke(new BasicStroke(2));
-//                g2d.fillOval(info.x + sx + 15, info.y + sy+15, 10, 10);
-                char[] charArray = stringInfo.toCharArray();
-                g2d.setColor(Color.BLACK);
-                g2d.setFont(g2d.getFont().deriveFont(Font.BOLD, (float) (14 * scaleFactor)));
-                g2d.drawChars(charArray, 0, charArray.length, info.x + sx + (charArray.length == 1 ? 1 : 0) * ((int) sizeX / 2 - 5) - 1, info.y + sy + (int) sizeZ - 5 - 1);
-                g2d.setColor(Color.WHITE);
-                g2d.setFont(g2d.getFont().deriveFont(Font.BOLD, (float) (13 * scaleFactor)));
-                g2d.drawChars(charArray, 0, charArray.length, info.x + sx + (charArray.length == 1 ? 1 : 0) * ((int) sizeX / 2 - 5), info.y + sy + (int) sizeZ - 5);
-                g2d.setColor(old);
-            }
-        }
+        String extraInfo = getExtraInfo() != null && this.getContext().getSettings().showExtraInfos ? getExtraInfo().apply(pos) : null;
+        // scaled and labelled once per zoom level, then only blitted
+        IconSprites.get(feature.getClass(), icon, scaleFactor, hovered, (int) sizeX, (int) sizeZ, extraInfo, graphics.getFont())
+                .draw(graphics, info.x + sx, info.y + sy);
     }
 
-
     @Override
     public boolean isHovered(Fragment fragment, BPos hoveredPos, BPos featurePos, int width, int height, Feature<?, ?> feature) {
+        BufferedImage icon = Icons.get(feature.getClass());
         double scaleFactor = this.getHoverScaleFactor() * this.getZoomScaleFactor() * Configs.ICONS.getSize(feature.getClass()) / 2.0D;
-        double distanceX = (fragment.getSize() / (double) width) * this.iconSizeX * scaleFactor;
-        double distanceZ = (fragment.getSize() / (double) height) * this.iconSizeZ * scaleFactor;
+        double distanceX = (fragment.getSize() / (double) width) * this.getIconSizeX(icon) * scaleFactor;
+        double distanceZ = (fragment.getSize() / (double) height) * this.getIconSizeZ(icon) * scaleFactor;
         int dx = Math.abs(hoveredPos.getX() - featurePos.getX());
         int dz = Math.abs(hoveredPos.getZ() - featurePos.getZ());
         return dx < distanceX && dz < distanceZ;
     }
 
+    @Override
+    public double getHoverDistance(Fragment fragment, int width, int height, Feature<?, ?> feature) {
+        // the longest side of an icon is always rendered at the default size
+        double scaleFactor = this.getHoverScaleFactor() * this.getZoomScaleFactor() * Configs.ICONS.getSize(feature.getClass()) / 2.0D;
+        return Math.max(fragment.getSize() / (double) width, fragment.getSize() / (double) height) * DEFAULT_VALUE * scaleFactor;
+    }
+
+    /**
+     * @return the width of that icon before scaling, the given one if there is no icon
+     */
+    private int getIconSizeX(BufferedImage icon) {
+        if (icon == null) return this.iconSizeX;
+        if (icon.getRaster().getWidth() > icon.getRaster().getHeight()) return DEFAULT_VALUE;
+        return (int) (DEFAULT_VALUE * (float) icon.getRaster().getWidth() / icon.getRaster().getHeight());
+    }
+
+    /**
+     * @return the height of that icon before scaling, the given one if there is no icon
+     */
+    private int getIconSizeZ(BufferedImage icon) {
+        if (icon == null) return this.iconSizeZ;
+        if (icon.getRaster().getWidth() > icon.getRaster().getHeight()) return (int) (DEFAULT_VALUE * (float) icon.getRaster().getHeight() / icon.getRaster().getWidth());
+        return DEFAULT_VALUE;
+    }
+
 }
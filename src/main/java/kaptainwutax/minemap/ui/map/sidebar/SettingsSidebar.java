@@ -73,8 +73,9 @@ public class SettingsSidebar extends JPanel {
         this.layerDropdown.selectIfPresent(this.map.getContext().getLayerId());
 
         this.layerDropdown.addActionListener(e1 -> {
+            // the fragments of each layer stay cached, going back to one only redraws it
             this.map.getContext().setLayerId(this.layerDropdown.getSelected());
-            this.map.restart();
+            this.map.repaint();
         });
 
         this.layerDropdown.setAlignmentX(Component.CENTER_ALIGNMENT);
@@ -194,7 +195,6 @@ public class SettingsSidebar extends JPanel {
                     .map(c -> (FeatureEntry) c).forEach(c -> c.getCheckBox().setSelected(false));
             Arrays.stream(this.toggles.getComponents()).filter(c -> c instanceof BiomeEntry)
                     .map(c -> (BiomeEntry) c).forEach(c -> c.getCheckBox().setSelected(false));
-            this.map.restart();
             this.map.repaint();
         }));
 
@@ -206,7 +206,6 @@ public class SettingsSidebar extends JPanel {
                     .map(c -> (FeatureEntry) c).forEach(c -> c.getCheckBox().setSelected(true));
             Arrays.stream(this.toggles.getComponents()).filter(c -> c instanceof BiomeEntry)
                     .map(c -> (BiomeEntry) c).forEach(c -> c.getCheckBox().setSelected(true));
-            this.map.restart();
             this.map.repaint();
         }));
 
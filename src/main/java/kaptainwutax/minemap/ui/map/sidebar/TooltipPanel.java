@@ -9,10 +9,18 @@ import kaptainwutax.mcutils.util.pos.BPos;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.*;
 
 public class TooltipPanel extends JPanel {
 
+    // entries kept aside for the next hovered features
+    private static final int MAX_POOLED = 32;
+
     private final MapPanel map;
+    // the entries shown keyed by feature and position, in the order they were added
+    private final Map<List<Object>, Entry> entries = new LinkedHashMap<>();
+    private final Deque<Entry> pool = new ArrayDeque<>();
 
     public TooltipPanel(MapPanel map) {
         this.map = map;
@@ -21,26 +29,53 @@ public class TooltipPanel extends JPanel {
         this.setOpaque(false);
     }
 
+    /**
+     * Only adds and removes the entries of the features whose hover state changed, the others are left as is.
+     */
     @Override
     public void repaint() {
-        if (this.map != null && this.map.scheduler != null) {
-            this.removeAll();
+        // also called by swing before the map is set
+        if (this.map == null || this.map.scheduler == null) return;
+        Map<List<Object>, Feature<?, ?>> hovered = new LinkedHashMap<>();
+        int size = (int) this.map.getManager().pixelsPerFragment;
+
+        this.map.scheduler.forEachFragment(fragment -> {
+            fragment.forEachFeature(size, size, fragment.getHoveredPos(), (feature, pos) -> hovered.put(Arrays.asList(feature, pos), feature));
+        });
 
-            int size = (int) this.map.getManager().pixelsPerFragment;
+        if (hovered.keySet().equals(this.entries.keySet())) return;
 
-            this.map.scheduler.forEachFragment(fragment -> {
-                fragment.getHoveredFeatures(size, size).forEach((feature, positions) -> {
-                    positions.forEach(pos -> this.add(new Entry(feature, pos)));
-                });
-            });
+        for (Iterator<Map.Entry<List<Object>, Entry>> iterator = this.entries.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<List<Object>, Entry> entry = iterator.next();
+            if (hovered.containsKey(entry.getKey())) continue;
+            this.remove(entry.getValue());
+            if (this.pool.size() < MAX_POOLED) this.pool.push(entry.getValue());
+            iterator.remove();
         }
+
+        hovered.forEach((key, feature) -> {
+            if (this.entries.containsKey(key)) return;
+            Entry entry = this.pool.isEmpty() ? new Entry() : this.pool.pop();
+            entry.set(feature, (BPos) key.get(1));
+            this.entries.put(key, entry);
+            this.add(entry);
+        });
+
+        this.revalidate();
+        super.repaint();
     }
 
     public static class Entry extends JPanel {
         private final JComponent iconView;
         private final JLabel positionText;
+        private Feature<?, ?> feature;
 
         public Entry(Feature<?, ?> feature, BPos pos) {
+            this();
+            this.set(feature, pos);
+        }
+
+        private Entry() {
             this.iconView = new JComponent() {
                 @Override
                 public Dimension getPreferredSize() {
@@ -50,7 +85,8 @@ public class TooltipPanel extends JPanel {
                 @Override
                 protected void paintComponent(Graphics g) {
                     super.paintComponent(g);
-                    BufferedImage icon = Icons.get(feature.getClass());
+                    if (Entry.this.feature == null) return;
+                    BufferedImage icon = Icons.get(Entry.this.feature.getClass());
                     if (icon == null) return;
                     int iconSizeX, iconSizeZ;
                     int defaultValue = 20;
@@ -66,7 +102,7 @@ public class TooltipPanel extends JPanel {
                 }
             };
 
-            this.positionText = new JLabel(" [" + pos.getX() + ", " + pos.getZ() + "] " + Str.formatName(feature.getName()));
+            this.positionText = new JLabel();
             this.positionText.setFont(new Font(this.positionText.getFont().getName(), Font.PLAIN, 18));
             this.positionText.setBackground(new Color(0, 0, 0, 0));
             this.positionText.setFocusable(false);
@@ -78,6 +114,15 @@ public class TooltipPanel extends JPanel {
             this.setOpaque(false);
         }
 
+        /**
+         * Shows that feature instead, so the entry can be reused.
+         */
+        public void set(Feature<?, ?> feature, BPos pos) {
+            this.feature = feature;
+            this.positionText.setText(" [" + pos.getX() + ", " + pos.getZ() + "] " + Str.formatName(feature.getName()));
+            this.iconView.repaint();
+        }
+
         @Override
         public void paint(Graphics g) {
             // this is a trick to have a background
@@ -165,7 +165,8 @@ public class SettingsMenu extends Menu {
 
                 button.setEnabled(false);
                 Configs.USER_PROFILE.getUserSettings().style = style;
-                MineMap.INSTANCE.worldTabs.invalidateAll();
+                // the fragments pick up the palette of the new style on their next paint
+                MineMap.INSTANCE.worldTabs.repaintAll();
                 Configs.USER_PROFILE.flush();
             }));
 
@@ -1,5 +1,6 @@
 package kaptainwutax.minemap.ui.menubar;
 
+import kaptainwutax.featureutils.structure.RegionStructure;
 import kaptainwutax.minemap.MineMap;
 import kaptainwutax.minemap.init.Configs;
 import kaptainwutax.minemap.init.KeyShortcuts;
@@ -41,7 +42,8 @@ public class UtilitiesMenu extends Menu {
             if (!this.structureSeedMode.isEnabled()) return;
             Configs.USER_PROFILE.getUserSettings().structureMode = this.structureSeedMode.isSelected();
             Configs.USER_PROFILE.flush();
-            MineMap.INSTANCE.worldTabs.invalidateAll();
+            // only decides which region structures are shown, the biomes stay valid
+            MineMap.INSTANCE.worldTabs.invalidateFeatures(feature -> feature instanceof RegionStructure);
             if (MineMap.INSTANCE.toolbarPane.structureSeedModePopup == null) {
                 MineMap.INSTANCE.toolbarPane = new MenuBar();
                 System.out.println("This should not happen");
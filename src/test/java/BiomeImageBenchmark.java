@@ -0,0 +1,125 @@
+import kaptainwutax.biomeutils.Biome;
+import kaptainwutax.biomeutils.layer.BiomeLayer;
+import kaptainwutax.mcutils.state.Dimension;
+import kaptainwutax.mcutils.util.pos.BPos;
+import kaptainwutax.mcutils.util.pos.RPos;
+import kaptainwutax.mcutils.version.MCVersion;
+import kaptainwutax.minemap.init.Configs;
+import kaptainwutax.minemap.init.Features;
+import kaptainwutax.minemap.init.Icons;
+import kaptainwutax.minemap.ui.map.MapContext;
+import kaptainwutax.minemap.ui.map.MapSettings;
+import kaptainwutax.minemap.ui.map.fragment.Fragment;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Compares the old biome path of a fragment (nested int[][] grid and one setRGB per pixel) with the current one
+ * (flat grid and one bulk raster write), first on the whole tile then on the image building alone. Only a tool to
+ * measure with, no result of it is recorded anywhere.
+ */
+public class BiomeImageBenchmark {
+
+    private static final int FRAGMENT_SIZE = 512;
+    private static final int FRAGMENTS = 64;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        Features.registerFeatures();
+        Configs.registerConfigs();
+        Icons.registerIcons();
+        // every round has to sample the layer again
+        Configs.USER_PROFILE.getUserSettings().diskCacheSize = 0;
+
+        MapSettings settings = new MapSettings(MCVersion.v1_16, Dimension.OVERWORLD).refresh();
+        MapContext context = new MapContext(1234L, settings);
+        BiomeLayer layer = context.getBiomeLayer();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            // each path samples its own row of fragments, new every round, so neither reads what the other cached
+            int offset = round * FRAGMENTS * FRAGMENT_SIZE;
+            int beforeZ = 0, afterZ = 64 * FRAGMENT_SIZE;
+            Runnable runBefore = () -> {
+                for (int i = 0; i < FRAGMENTS; i++) {
+                    buildBefore(layer, offset + i * FRAGMENT_SIZE, beforeZ);
+                }
+            };
+            Runnable runAfter = () -> {
+                for (int i = 0; i < FRAGMENTS; i++) {
+                    new Fragment(offset + i * FRAGMENT_SIZE, afterZ, FRAGMENT_SIZE, context, false).generateBiomes();
+                }
+            };
+            long before, after;
+
+            // and they take turns going first so the warm up doesn't favor one
+            if (round % 2 == 0) {
+                before = time(runBefore);
+                after = time(runAfter);
+            } else {
+                after = time(runAfter);
+                before = time(runBefore);
+            }
+
+            System.out.printf("tiles  round %d: before %d ms, after %d ms%n", round, before / 1000000, after / 1000000);
+        }
+
+        int size = FRAGMENT_SIZE / layer.getScale();
+        int[] colors = new int[size * size];
+
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = 0xFF000000 | i * 0x9E3779B1;
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = time(() -> {
+                for (int i = 0; i < FRAGMENTS * 16; i++) {
+                    BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+
+                    for (int x = 0; x < size; x++) {
+                        for (int z = 0; z < size; z++) {
+                            image.setRGB(x, z, colors[z * size + x]);
+                        }
+                    }
+                }
+            });
+            long after = time(() -> {
+                for (int i = 0; i < FRAGMENTS * 16; i++) {
+                    BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+                    image.getRaster().setDataElements(0, 0, size, size, colors);
+                }
+            });
+            System.out.printf("images round %d: before %d ms, after %d ms%n", round, before / 1000000, after / 1000000);
+        }
+    }
+
+    private static void buildBefore(BiomeLayer layer, int blockX, int blockZ) {
+        int effectiveRegion = FRAGMENT_SIZE / layer.getScale();
+        RPos region = new BPos(blockX, 0, blockZ).toRegionPos(layer.getScale());
+        int[][] biomes = new int[effectiveRegion][effectiveRegion];
+
+        for (int x = 0; x < effectiveRegion; x++) {
+            for (int z = 0; z < effectiveRegion; z++) {
+                biomes[x][z] = layer.get(region.getX() + x, 0, region.getZ() + z);
+            }
+        }
+
+        BufferedImage image = new BufferedImage(effectiveRegion, effectiveRegion, BufferedImage.TYPE_INT_RGB);
+
+        for (int x = 0; x < effectiveRegion; x++) {
+            for (int z = 0; z < effectiveRegion; z++) {
+                Biome biome = Biome.REGISTRY.get(biomes[x][z]);
+                if (biome == null) continue;
+                Color color = Configs.BIOME_COLORS.get(Configs.USER_PROFILE.getUserSettings().style, biome);
+                image.setRGB(x, z, color.getRGB());
+            }
+        }
+    }
+
+    private static long time(Runnable runnable) {
+        long start = System.nanoTime();
+        runnable.run();
+        return System.nanoTime() - start;
+    }
+
+}